@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link AbstractLifecycle#addListener(LifecycleStage, LifecycleListener)}, uncontended and with several threads
+ * registering listeners with the same lifecycle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddListenerBenchmark
+{
+    private final LifecycleListener listener = new NoopListener();
+
+    private DefaultLifecycle lifecycle;
+
+    @Setup(Level.Iteration)
+    public void setUp()
+    {
+        // Do not let the listener lists grow without bounds.
+        lifecycle = new DefaultLifecycle();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void addListener()
+    {
+        lifecycle.addListener(LifecycleStage.START_STAGE, listener);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addListenerContended()
+    {
+        lifecycle.addListener(LifecycleStage.START_STAGE, listener);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addListenerWithDependencies()
+    {
+        lifecycle.addListener(LifecycleStage.START_STAGE, listener, LifecycleDependencies.NONE.after("database"));
+    }
+}
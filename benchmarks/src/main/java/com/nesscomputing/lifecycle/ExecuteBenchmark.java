@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to execute a stage with a large number of trivial listeners, which measures the overhead of the stage execution itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteBenchmark
+{
+    @Param({"10", "1000", "100000"})
+    public int listeners;
+
+    @Param({"false", "true"})
+    public boolean observed;
+
+    private DefaultLifecycle lifecycle;
+    private DefaultLifecycle dependentLifecycle;
+    private DefaultLifecycle parallelLifecycle;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        lifecycle = createLifecycle();
+        dependentLifecycle = createLifecycle();
+        parallelLifecycle = createLifecycle();
+
+        executor = LifecycleExecutors.newBoundedExecutor(4);
+        parallelLifecycle.setExecutor(executor);
+
+        final LifecycleListener listener = new NoopListener();
+        for (int i = 0; i < listeners; i++) {
+            lifecycle.addListener(LifecycleStage.START_STAGE, listener);
+            parallelLifecycle.addListener(LifecycleStage.START_STAGE, listener);
+
+            // A chain, every listener depends on the previous one.
+            final LifecycleDependencies dependencies = LifecycleDependencies.named("listener-" + i);
+            dependentLifecycle.addListener(LifecycleStage.START_STAGE, listener, i == 0 ? dependencies : dependencies.after("listener-" + (i - 1)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    private DefaultLifecycle createLifecycle()
+    {
+        final DefaultLifecycle result = new DefaultLifecycle();
+        if (observed) {
+            result.addObserver(new LifecycleTimings());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public void execute()
+    {
+        lifecycle.execute(LifecycleStage.START_STAGE);
+    }
+
+    @Benchmark
+    public void executeWithDependencies()
+    {
+        dependentLifecycle.execute(LifecycleStage.START_STAGE);
+    }
+
+    @Benchmark
+    public void executeParallel()
+    {
+        parallelLifecycle.execute(LifecycleStage.START_STAGE);
+    }
+}
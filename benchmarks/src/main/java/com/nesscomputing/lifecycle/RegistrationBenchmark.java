@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Registers a large number of listeners with a new lifecycle, then runs the registered stages. This is the pattern of a
+ * boot with many non-singleton lifecycle providers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationBenchmark
+{
+    @Param({"1000", "100000"})
+    public int listeners;
+
+    private final LifecycleListener listener = new NoopListener();
+
+    @Benchmark
+    public DefaultLifecycle register()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        for (int i = 0; i < listeners; i++) {
+            lifecycle.addListener(LifecycleStage.START_STAGE, listener);
+        }
+        return lifecycle;
+    }
+
+    @Benchmark
+    public DefaultLifecycle registerAndRun()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        for (int i = 0; i < listeners; i++) {
+            lifecycle.addListener(LifecycleStage.START_STAGE, listener);
+            lifecycle.addListener(LifecycleStage.STOP_STAGE, listener);
+        }
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        return lifecycle;
+    }
+}
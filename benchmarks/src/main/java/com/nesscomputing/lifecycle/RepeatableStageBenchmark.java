@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to execute a repeatable stage with a few trivial listeners, which is dominated by the per-call overhead of the lifecycle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepeatableStageBenchmark
+{
+    private static final LifecycleStage TICK_STAGE = new LifecycleStage("tick");
+
+    @Param({"1", "10"})
+    public int listeners;
+
+    private AbstractLifecycle lifecycle;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        final LifecycleDriver driver = new LifecycleDriver(Arrays.asList(LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE),
+                                                           Collections.singletonList(RepeatableStage.of(TICK_STAGE).after(LifecycleStage.START_STAGE)));
+        lifecycle = new AbstractLifecycle(driver, false) {
+            @Override
+            public void join() throws InterruptedException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final LifecycleListener listener = new NoopListener();
+        for (int i = 0; i < listeners; i++) {
+            lifecycle.addListener(TICK_STAGE, listener);
+        }
+        lifecycle.executeNext();
+    }
+
+    @Benchmark
+    public void execute()
+    {
+        lifecycle.execute(TICK_STAGE);
+    }
+}
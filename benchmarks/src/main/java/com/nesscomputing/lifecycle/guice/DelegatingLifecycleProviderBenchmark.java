@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.Provider;
+import com.nesscomputing.lifecycle.DefaultLifecycle;
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+/**
+ * Cost of {@link DelegatingLifecycleProvider#get()}, which registers the provider actions with the lifecycle for every object provided.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DelegatingLifecycleProviderBenchmark {
+    private DelegatingLifecycleProvider<Object> provider;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        provider = (DelegatingLifecycleProvider<Object>) DelegatingLifecycleProvider.of(new Provider<Object>() {
+            @Override
+            public Object get() {
+                return new Object();
+            }
+        });
+
+        final LifecycleAction<Object> action = new LifecycleAction<Object>() {
+            @Override
+            public void performAction(final Object obj) {
+            }
+        };
+        provider.addAction(LifecycleStage.START_STAGE, action);
+        provider.addAction(LifecycleStage.STOP_STAGE, action);
+
+        // A new lifecycle per iteration, so that the listener lists do not grow without bounds.
+        provider.setLifecycle(new DefaultLifecycle());
+    }
+
+    @Benchmark
+    public Object get() {
+        return provider.get();
+    }
+}
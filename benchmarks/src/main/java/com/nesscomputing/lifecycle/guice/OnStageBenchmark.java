@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Stage;
+import com.nesscomputing.lifecycle.LifecycleListener;
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+/**
+ * Discovery and invocation of {@link OnStage} methods. The reflective variants are the baseline the cached and method handle
+ * based code paths are compared against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OnStageBenchmark {
+    public static class Annotated {
+        private volatile int calls = 0;
+
+        @OnStage(LifecycleStage.CONFIGURE)
+        public void configure() {
+            calls++;
+        }
+
+        @OnStage(value = LifecycleStage.START, name = "annotated")
+        public void start() {
+            calls++;
+        }
+
+        @OnStage(LifecycleStage.STOP)
+        public void stop() {
+            calls++;
+        }
+    }
+
+    private final Annotated target = new Annotated();
+
+    private Injector injector;
+    private Method method;
+    private LifecycleListener listener;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        // A new injector, and with it a new lifecycle, per iteration, so that the listener lists do not grow without bounds.
+        injector = Guice.createInjector(Stage.PRODUCTION, new LifecycleModule());
+
+        method = Annotated.class.getMethod("start");
+        listener = OnStageMethod.forMethod(method, method.getAnnotation(OnStage.class)).bind(target);
+    }
+
+    /**
+     * Injection of an object with annotated methods, including their registration with the lifecycle.
+     */
+    @Benchmark
+    public Object inject() {
+        return injector.getInstance(Annotated.class);
+    }
+
+    @Benchmark
+    public List<OnStageMethod> discoverCached() {
+        return OnStageMethodCache.forClass(Annotated.class);
+    }
+
+    @Benchmark
+    public void discoverReflection(final Blackhole blackhole) {
+        for (Class<?> type = Annotated.class; type != null; type = type.getSuperclass()) {
+            for (final Method declared : type.getDeclaredMethods()) {
+                blackhole.consume(declared.getAnnotation(OnStage.class));
+            }
+        }
+    }
+
+    @Benchmark
+    public void invokeMethodHandle() {
+        listener.onStage(LifecycleStage.START_STAGE);
+    }
+
+    @Benchmark
+    public void invokeReflection() throws Exception {
+        method.invoke(target);
+    }
+}
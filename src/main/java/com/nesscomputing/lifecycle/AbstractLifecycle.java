@@ -16,28 +16,56 @@
 package com.nesscomputing.lifecycle;
 
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-import com.google.common.collect.Lists;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nesscomputing.lifecycle.LifecycleDriver.StageRun;
 import com.nesscomputing.logging.Log;
 
 /**
  * Base code for lifecycling.
  */
-public abstract class AbstractLifecycle implements Lifecycle
+public abstract class AbstractLifecycle implements AsyncLifecycle
 {
     private static final Log LOG = Log.findLog();
 
-    private final ConcurrentMap<LifecycleStage, List<LifecycleListener>> listeners = new ConcurrentHashMap<LifecycleStage, List<LifecycleListener>>();
+    /** Listeners of each stage, indexed by stage ordinal. Null for stages that are not part of this lifecycle. */
+    private final ListenerLog [] listeners;
 
     private final LifecycleDriver lifecycleDriver;
 
     private final boolean verbose;
 
+    /** If non-null, the listeners of a stage are run concurrently on this executor. */
+    private volatile Executor executor = null;
+
+    private final List<LifecycleObserver> observers = new CopyOnWriteArrayList<LifecycleObserver>();
+
+    /** If non-null, the ready listeners of a stage are started longest first according to this profile. */
+    private volatile LifecycleProfile profile = null;
+
+    /** Settings of each stage, indexed by stage ordinal. */
+    private final StageSettings [] settings;
+
+    /** Runs the listeners of stages with timeouts if no executor was set. Created on first use. */
+    private volatile ExecutorService timeoutExecutor = null;
+
+    /** Runs the stages executed asynchronously, one at a time. Created on first use. */
+    private volatile ListeningExecutorService asyncExecutor = null;
+
     /**
      * Builds a new Lifecycle.
      *
@@ -50,10 +78,25 @@ public abstract class AbstractLifecycle implements Lifecycle
         this.verbose = verbose;
         this.lifecycleDriver = lifecycleDriver;
 
-        // Add all stages for that Lifecycle to the listener map.
+        int maxOrdinal = -1;
+        for (LifecycleStage lifecycleStage : lifecycleDriver.getStages()) {
+            maxOrdinal = Math.max(maxOrdinal, lifecycleStage.getOrdinal());
+        }
+        for (RepeatableStage repeatableStage : lifecycleDriver.getRepeatableStages()) {
+            maxOrdinal = Math.max(maxOrdinal, repeatableStage.getLifecycleStage().getOrdinal());
+        }
+        this.listeners = new ListenerLog [maxOrdinal + 1];
+        this.settings = new StageSettings [maxOrdinal + 1];
+
+        // Add all stages for that Lifecycle to the listener tables.
         for (LifecycleStage lifecycleStage : lifecycleDriver.getStages()) {
-            listeners.put(lifecycleStage, new CopyOnWriteArrayList<LifecycleListener>());
-            addListener(lifecycleStage, lifecycleDriver);
+            listeners[lifecycleStage.getOrdinal()] = new ListenerLog();
+            settings[lifecycleStage.getOrdinal()] = new StageSettings(defaultFailurePolicy(lifecycleStage));
+        }
+
+        for (RepeatableStage repeatableStage : lifecycleDriver.getRepeatableStages()) {
+            listeners[repeatableStage.getLifecycleStage().getOrdinal()] = new ListenerLog();
+            settings[repeatableStage.getLifecycleStage().getOrdinal()] = new StageSettings(FailurePolicy.FAIL_FAST);
         }
     }
 
@@ -66,10 +109,228 @@ public abstract class AbstractLifecycle implements Lifecycle
     @Override
     public void addListener(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final LifecycleListener lifecycleListener)
     {
-        if (!listeners.containsKey(lifecycleStage)) {
+        addListener(lifecycleStage, lifecycleListener, LifecycleDependencies.NONE);
+    }
+
+    /**
+     * Adds a listener to a lifecycle stage that is ordered relative to other listeners of the same stage.
+     *
+     * @param lifecycleStage    The Lifecycle stage on which to be notified.
+     * @param lifecycleListener Callback to be invoked when the lifecycle stage is executed.
+     * @param dependencies      Name of the listener and the listeners it must run after or before.
+     */
+    @Override
+    public void addListener(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final LifecycleListener lifecycleListener, @Nonnull final LifecycleDependencies dependencies)
+    {
+        register(lifecycleStage, lifecycleListener, dependencies);
+    }
+
+    /**
+     * Adds a listener to a lifecycle stage and returns a handle to remove it again.
+     *
+     * @param lifecycleStage    The Lifecycle stage on which to be notified.
+     * @param lifecycleListener Callback to be invoked when the lifecycle stage is executed.
+     */
+    @Override
+    public LifecycleRegistration register(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final LifecycleListener lifecycleListener)
+    {
+        return register(lifecycleStage, lifecycleListener, LifecycleDependencies.NONE);
+    }
+
+    /**
+     * Adds a listener to a lifecycle stage that is ordered relative to other listeners of the same stage and returns a handle
+     * to remove it again. Removing a listener takes amortized constant time. A {@link WeakTargetListener} is also removed once its target
+     * was garbage collected.
+     *
+     * @param lifecycleStage    The Lifecycle stage on which to be notified.
+     * @param lifecycleListener Callback to be invoked when the lifecycle stage is executed.
+     * @param dependencies      Name of the listener and the listeners it must run after or before.
+     */
+    @Override
+    public LifecycleRegistration register(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final LifecycleListener lifecycleListener, @Nonnull final LifecycleDependencies dependencies)
+    {
+        final ListenerLog stageListeners = getListenerLog(lifecycleStage);
+        if (stageListeners == null) {
+            throw illegalStage(lifecycleStage);
+        }
+        final ListenerEntry entry = new ListenerEntry(lifecycleListener, dependencies);
+        stageListeners.add(entry);
+
+        if (lifecycleListener instanceof WeakTargetListener) {
+            ((WeakTargetListener<?>) lifecycleListener).getTarget().register(stageListeners, entry);
+        }
+
+        return new Registration(lifecycleStage, stageListeners, entry);
+    }
+
+    /**
+     * Returns the number of listeners currently registered with a stage.
+     */
+    @VisibleForTesting
+    int getListenerCount(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        final ListenerLog stageListeners = getListenerLog(lifecycleStage);
+        if (stageListeners == null) {
+            throw illegalStage(lifecycleStage);
+        }
+        return stageListeners.size();
+    }
+
+    /**
+     * Adds a listener to a lifecycle stage whose work completes asynchronously. The listener is considered finished once the
+     * returned future has completed. No thread waits for the future, so the listeners after it are started while its work
+     * is in progress, also if the listeners of the stage are run one at a time.
+     *
+     * @param lifecycleStage    The Lifecycle stage on which to be notified.
+     * @param lifecycleListener Callback to be invoked when the lifecycle stage is executed.
+     * @param dependencies      Name of the listener and the listeners it must run after or before.
+     */
+    @Override
+    public LifecycleRegistration addAsyncListener(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final AsyncLifecycleListener lifecycleListener, @Nonnull final LifecycleDependencies dependencies)
+    {
+        return register(lifecycleStage, new AsyncListenerAdapter(lifecycleListener), dependencies);
+    }
+
+    /**
+     * Run the listeners of a stage concurrently on the given executor. A listener is started once all listeners it depends on
+     * (see {@link LifecycleDependencies}) have finished, and a stage is complete once all of its listeners have finished.
+     * If any listener fails, no further listeners are started (unless the stage uses {@link FailurePolicy#BEST_EFFORT}) and a
+     * {@link LifecycleStageException} containing all failures is thrown after the running listeners have completed.
+     *
+     * @param executor The executor to run the listeners on. If null, listeners are run one at a time on the thread executing the stage (the default).
+     */
+    public void setExecutor(@Nullable final Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs each listener of a stage on its own virtual thread if the runtime supports them, otherwise on a pool of at most
+     * {@code fallbackThreads} daemon threads. This suits stages with many I/O bound listeners. As with any executor, a stage is
+     * complete only once all of its listeners have finished.
+     *
+     * @see LifecycleExecutors#newVirtualThreadExecutor(int)
+     */
+    public void useVirtualThreads(final int fallbackThreads)
+    {
+        setExecutor(LifecycleExecutors.newVirtualThreadExecutor(fallbackThreads));
+    }
+
+    /**
+     * Sets the maximum time a single listener of a stage may run. When a listener exceeds this time, the stage stops waiting
+     * for it and proceeds according to the {@link TimeoutPolicy} of the stage. Listeners can not be forcibly stopped, an abandoned
+     * listener keeps running in the background.
+     * <p>
+     * If no executor was set, the listeners of a stage with a timeout still run one at a time, but on a separate daemon thread
+     * so that the thread executing the stage can watch them.
+     *
+     * @param timeout The maximum time, 0 for no limit (the default).
+     */
+    public void setListenerTimeout(@Nonnull final LifecycleStage lifecycleStage, final long timeout, @Nonnull final TimeUnit unit)
+    {
+        getSettings(lifecycleStage).setListenerTimeout(timeout, unit);
+    }
+
+    /**
+     * Sets the maximum time all listeners of a stage may run. When the deadline passes, the stage stops waiting for the running
+     * listeners, skips all listeners that have not been started yet and proceeds according to the {@link TimeoutPolicy} of the stage.
+     *
+     * @param timeout The maximum time, 0 for no limit (the default).
+     */
+    public void setStageDeadline(@Nonnull final LifecycleStage lifecycleStage, final long timeout, @Nonnull final TimeUnit unit)
+    {
+        getSettings(lifecycleStage).setStageDeadline(timeout, unit);
+    }
+
+    /**
+     * Sets how a stage reacts to listeners that time out. The default is {@link TimeoutPolicy#CONTINUE}.
+     */
+    public void setTimeoutPolicy(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final TimeoutPolicy timeoutPolicy)
+    {
+        getSettings(lifecycleStage).setTimeoutPolicy(timeoutPolicy);
+    }
+
+    /**
+     * Sets how a stage reacts to listeners that throw an exception. The default is {@link FailurePolicy#BEST_EFFORT} for the
+     * STOP stage and {@link FailurePolicy#FAIL_FAST} for all other stages.
+     */
+    public void setFailurePolicy(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final FailurePolicy failurePolicy)
+    {
+        getSettings(lifecycleStage).setFailurePolicy(failurePolicy);
+    }
+
+    private static FailurePolicy defaultFailurePolicy(final LifecycleStage lifecycleStage)
+    {
+        return lifecycleStage.equals(LifecycleStage.STOP_STAGE) ? FailurePolicy.BEST_EFFORT : FailurePolicy.FAIL_FAST;
+    }
+
+    private StageSettings getSettings(final LifecycleStage lifecycleStage)
+    {
+        final int ordinal = lifecycleStage.getOrdinal();
+        final StageSettings stageSettings = ordinal < settings.length ? settings[ordinal] : null;
+        if (stageSettings == null) {
             throw illegalStage(lifecycleStage);
         }
-        listeners.get(lifecycleStage).add(lifecycleListener);
+        return stageSettings;
+    }
+
+    @CheckForNull
+    private ListenerLog getListenerLog(final LifecycleStage lifecycleStage)
+    {
+        final int ordinal = lifecycleStage.getOrdinal();
+        return ordinal < listeners.length ? listeners[ordinal] : null;
+    }
+
+    private ExecutorService getTimeoutExecutor()
+    {
+        ExecutorService result = timeoutExecutor;
+        if (result == null) {
+            synchronized (this) {
+                result = timeoutExecutor;
+                if (result == null) {
+                    result = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("lifecycle-%d").build());
+                    timeoutExecutor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds an observer that is notified about the execution of all stages and listeners of this lifecycle.
+     *
+     * @see LifecycleTimings
+     */
+    public void addObserver(@Nonnull final LifecycleObserver observer)
+    {
+        observers.add(observer);
+    }
+
+    /**
+     * Removes an observer previously added with {@link #addObserver(LifecycleObserver)}.
+     */
+    public void removeObserver(@Nonnull final LifecycleObserver observer)
+    {
+        observers.remove(observer);
+    }
+
+    /**
+     * Records the duration of all listeners in a profile and uses the durations of the previous run to start the longest listeners
+     * first among those that are ready. This only changes the order if the listeners run concurrently (see {@link #setExecutor(Executor)});
+     * dependencies between listeners are always honored. The profile is written after every stage of the lifecycle sequence that
+     * changed it.
+     *
+     * @param profile The profile or null to start ready listeners in registration order (the default).
+     */
+    public synchronized void setProfile(@Nullable final LifecycleProfile profile)
+    {
+        if (this.profile != null) {
+            removeObserver(this.profile);
+        }
+        if (profile != null) {
+            addObserver(profile);
+        }
+        this.profile = profile;
     }
 
     /**
@@ -82,64 +343,204 @@ public abstract class AbstractLifecycle implements Lifecycle
     }
 
     /**
-     * Execute the next stage in the cycle.
+     * Returns the stages of the sequence that have been started, including a stage that is currently executing, in sequence order.
+     */
+    @Override
+    public List<LifecycleStage> getStartedStages()
+    {
+        return lifecycleDriver.getStartedStages();
+    }
+
+    /**
+     * Execute the next stage in the cycle. If another thread is executing a stage of the cycle, wait for it to complete instead.
      */
     @Override
     public void executeNext()
     {
-        final LifecycleStage nextStage = getNextStage();
-        if (nextStage == null) {
+        final StageRun run = lifecycleDriver.beginNextStage(null);
+        if (run == null) {
             throw new IllegalStateException("Lifecycle already hit the final stage!");
         }
-        execute(nextStage);
+        complete(run);
     }
 
     /**
-     * Executes stages until the stage requested has been reached.
+     * Executes stages until the stage requested has been reached. Stages executed by other threads at the same time are not executed
+     * again; if another thread passes the stage requested while this thread waits for it, the call returns normally.
+     *
      * @param lifecycleStage The lifecycle stage to reach.
      *
-     * @throws IllegalStateException If the cycle ends before this stage is reached.
+     * @throws IllegalStateException If the stage is not part of the sequence of this lifecycle or if the cycle has already passed it.
      */
     @Override
     public void executeTo(@Nonnull final LifecycleStage lifecycleStage)
     {
-        boolean foundStage = false;
-        do {
-            final LifecycleStage nextStage = lifecycleDriver.getNextStage();
+        if (getListenerLog(lifecycleStage) == null || !lifecycleDriver.isSequenceStage(lifecycleStage)) {
+            throw illegalStage(lifecycleStage);
+        }
 
-            if (nextStage == null) {
-                throw new IllegalStateException("Never reached stage '" + lifecycleStage.getName() + "' before ending the lifecycle.");
+        boolean first = true;
+        while (true) {
+            final StageRun run = lifecycleDriver.beginNextStage(lifecycleStage);
+            if (run == null) {
+                if (first) {
+                    throw new IllegalStateException("Never reached stage '" + lifecycleStage.getName() + "' before ending the lifecycle.");
+                }
+                return;
+            }
+            first = false;
+            complete(run);
+            if (run.getLifecycleStage().equals(lifecycleStage)) {
+                return;
             }
+        }
+    }
 
-            foundStage = nextStage.equals(lifecycleStage);
-            execute(nextStage);
+    /**
+     * Executes a stage of the cycle started by this thread or waits for another thread to complete it.
+     */
+    private void complete(final StageRun run)
+    {
+        if (!run.isOwner()) {
+            run.await();
+            return;
+        }
 
-        } while(!foundStage);
+        Throwable failure = null;
+        try {
+            execute(run.getLifecycleStage(), run);
+        }
+        catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        }
+        catch (Error e) {
+            failure = e;
+            throw e;
+        }
+        finally {
+            lifecycleDriver.finishStage(run, failure);
+        }
     }
 
     /**
-     * Execute a lifecycle stage.
+     * Execute a lifecycle stage. Executing a stage of the sequence out of order waits for a stage another thread is executing and
+     * then continues the sequence after the stage executed.
      */
     @Override
     public void execute(@Nonnull final LifecycleStage lifecycleStage)
     {
-        List<LifecycleListener> lifecycleListeners = listeners.get(lifecycleStage);
-        if (lifecycleListeners == null) {
+        if (getListenerLog(lifecycleStage) == null) {
             throw illegalStage(lifecycleStage);
         }
 
-        log("Stage '%s' starting...", lifecycleStage.getName());
+        if (lifecycleDriver.isRepeatable(lifecycleStage)) {
+            execute(lifecycleStage, null);
+        }
+        else {
+            complete(lifecycleDriver.beginStage(lifecycleStage));
+        }
+    }
 
-        // Reverse the order for the STOP stage, so that dependencies are torn down in reverse order.
-        if (lifecycleStage.equals(LifecycleStage.STOP_STAGE)) {
-            lifecycleListeners = Lists.reverse(lifecycleListeners);
+    /**
+     * @param run The run of a sequence stage or null for a repeatable stage.
+     */
+    private void execute(final LifecycleStage lifecycleStage, @Nullable final StageRun run)
+    {
+        final ListenerLog lifecycleListeners = getListenerLog(lifecycleStage);
+
+        // Repeatable stages may run very often, so they are not reported.
+        final boolean repeatable = run == null;
+        if (repeatable) {
+            lifecycleDriver.checkRepeatable(lifecycleStage);
+        }
+        else {
+            log("Stage '%s' starting...", lifecycleStage.getName());
         }
 
-        for (final LifecycleListener listener : lifecycleListeners) {
-            listener.onStage(lifecycleStage);
+        // Reverse the order for the STOP stage, so that dependencies are torn down in reverse order.
+        final ListenerGraph graph = lifecycleListeners.getGraph(lifecycleStage, lifecycleStage.equals(LifecycleStage.STOP_STAGE));
+
+        final StageSettings stageSettings = getSettings(lifecycleStage);
+        final Executor stageExecutor = executor;
+        final Executor stageTimeoutExecutor = (stageExecutor == null && (stageSettings.isTimed() || graph.hasAsyncListeners())) ? getTimeoutExecutor() : stageExecutor;
+
+        final LifecycleProfile stageProfile = profile;
+
+        new StageExecution(lifecycleStage, graph, stageExecutor, stageTimeoutExecutor, stageSettings, observers, stageProfile, run).run();
+
+        if (!repeatable) {
+            log("Stage '%s' complete.", lifecycleStage.getName());
+            // Repeatable stages may run very often, so their durations are only written along with the next sequence stage.
+            if (stageProfile != null) {
+                stageProfile.saveIfChanged();
+            }
         }
+    }
 
-        log("Stage '%s' complete.", lifecycleStage.getName());
+    /**
+     * Execute the next stage in the cycle asynchronously.
+     */
+    @Override
+    public ListenableFuture<LifecycleStage> executeNextAsync()
+    {
+        return getAsyncExecutor().submit(new Callable<LifecycleStage>() {
+            @Override
+            public LifecycleStage call()
+            {
+                // Determine the next stage only when all previously requested stages have been executed.
+                final LifecycleStage nextStage = getNextStage();
+                executeNext();
+                return nextStage;
+            }
+        });
+    }
+
+    /**
+     * Executes stages asynchronously until the stage requested has been reached.
+     */
+    @Override
+    public ListenableFuture<LifecycleStage> executeToAsync(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        return getAsyncExecutor().submit(new Callable<LifecycleStage>() {
+            @Override
+            public LifecycleStage call()
+            {
+                executeTo(lifecycleStage);
+                return lifecycleStage;
+            }
+        });
+    }
+
+    /**
+     * Execute a lifecycle stage asynchronously.
+     */
+    @Override
+    public ListenableFuture<LifecycleStage> executeAsync(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        return getAsyncExecutor().submit(new Callable<LifecycleStage>() {
+            @Override
+            public LifecycleStage call()
+            {
+                execute(lifecycleStage);
+                return lifecycleStage;
+            }
+        });
+    }
+
+    private ListeningExecutorService getAsyncExecutor()
+    {
+        ListeningExecutorService result = asyncExecutor;
+        if (result == null) {
+            synchronized (this) {
+                result = asyncExecutor;
+                if (result == null) {
+                    result = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("lifecycle-async-%d").build()));
+                    asyncExecutor = result;
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -182,4 +583,36 @@ public abstract class AbstractLifecycle implements Lifecycle
             LOG.debug(message, args);
         }
     }
+
+    private static final class Registration implements LifecycleRegistration
+    {
+        private final LifecycleStage lifecycleStage;
+        private final ListenerLog stageListeners;
+        private final ListenerEntry entry;
+
+        private Registration(final LifecycleStage lifecycleStage, final ListenerLog stageListeners, final ListenerEntry entry)
+        {
+            this.lifecycleStage = lifecycleStage;
+            this.stageListeners = stageListeners;
+            this.entry = entry;
+        }
+
+        @Override
+        public LifecycleStage getLifecycleStage()
+        {
+            return lifecycleStage;
+        }
+
+        @Override
+        public void remove()
+        {
+            stageListeners.remove(entry);
+        }
+
+        @Override
+        public String toString()
+        {
+            return entry.getDisplayName() + " on " + lifecycleStage.getName();
+        }
+    }
 }
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+
+/**
+ * Base class for lifecycle observers. All callbacks do nothing, so subclasses only need to override what they are interested in.
+ */
+public abstract class AbstractLifecycleObserver implements LifecycleObserver
+{
+    @Override
+    public void onStageStarting(final LifecycleStage lifecycleStage)
+    {
+    }
+
+    @Override
+    public void onStageFinished(final LifecycleStage lifecycleStage, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+    }
+
+    @Override
+    public void onListenerDependencies(final LifecycleStage lifecycleStage, final String listenerName, final List<String> dependencies)
+    {
+    }
+
+    @Override
+    public void onListenerStarting(final LifecycleStage lifecycleStage, final String listenerName)
+    {
+    }
+
+    @Override
+    public void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+    }
+
+    @Override
+    public void onListenerTimedOut(final LifecycleStage lifecycleStage, final String listenerName, final long elapsedNanos)
+    {
+    }
+
+    @Override
+    public void onListenerSkipped(final LifecycleStage lifecycleStage, final String listenerName)
+    {
+    }
+}
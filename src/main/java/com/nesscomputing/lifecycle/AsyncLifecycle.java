@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A lifecycle whose stages can be executed without blocking the calling thread, e.g. to create further injectors or
+ * start servers while the lifecycle is progressing.
+ * <p>
+ * Stages executed asynchronously are run one after another in the order in which they were requested, on a thread owned
+ * by the lifecycle. Each call returns a future that completes with the executed stage once all of its listeners have finished,
+ * or fails with the exception that failed the stage.
+ */
+public interface AsyncLifecycle extends ExtendedLifecycle
+{
+    /**
+     * Adds a listener to a lifecycle stage whose work completes asynchronously. The listener is considered finished once the
+     * returned future has completed. No thread is held while the future is pending: listeners that do not depend on it are
+     * started in the meantime, even if the stage runs its listeners one at a time. If no executor was set, a stage with
+     * asynchronous listeners calls all of its listeners on a separate daemon thread.
+     *
+     * @param stage        The Lifecycle stage on which to be notified.
+     * @param listener     Callback to be invoked when the lifecycle stage is executed.
+     * @param dependencies Name of the listener and the listeners it must run after or before.
+     * @return Handle to remove the listener again.
+     */
+    LifecycleRegistration addAsyncListener(LifecycleStage stage, AsyncLifecycleListener listener, LifecycleDependencies dependencies);
+
+    /**
+     * Execute the next stage in the cycle asynchronously.
+     *
+     * @return Future for the executed stage. Fails with an {@link IllegalStateException} if the lifecycle already hit the final stage.
+     */
+    ListenableFuture<LifecycleStage> executeNextAsync();
+
+    /**
+     * Executes stages asynchronously until the stage requested has been reached.
+     *
+     * @return Future for the requested stage. Fails with an {@link IllegalStateException} if the stage is not part of the sequence or
+     *         if the cycle has already passed it when the stages before it have been executed.
+     */
+    ListenableFuture<LifecycleStage> executeToAsync(LifecycleStage stage);
+
+    /**
+     * Execute a lifecycle stage asynchronously.
+     *
+     * @return Future for the executed stage.
+     */
+    ListenableFuture<LifecycleStage> executeAsync(LifecycleStage stage);
+}
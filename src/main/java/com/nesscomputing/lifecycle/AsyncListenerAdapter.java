@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Runs an asynchronous listener as part of a stage, so that the listener counts as finished for dependency ordering, timeouts
+ * and observers only once its future has completed.
+ * <p>
+ * A stage starts the listener with {@link #start(LifecycleStage)} and completes it from the callback of its future, without holding
+ * a thread while the work is in progress. {@link #onStage(LifecycleStage)} waits for the future and is only used if the adapter
+ * is called as a plain listener.
+ */
+final class AsyncListenerAdapter implements LifecycleListener
+{
+    private final AsyncLifecycleListener listener;
+
+    AsyncListenerAdapter(@Nonnull final AsyncLifecycleListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Calls the listener and returns its future without waiting for it.
+     */
+    ListenableFuture<?> start(final LifecycleStage lifecycleStage)
+    {
+        return Preconditions.checkNotNull(listener.onStage(lifecycleStage), "Listener %s returned no future", listener);
+    }
+
+    @Override
+    public void onStage(final LifecycleStage lifecycleStage)
+    {
+        try {
+            start(lifecycleStage).get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ie);
+        }
+        catch (ExecutionException ee) {
+            throw Throwables.propagate(ee.getCause());
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return listener.toString();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+
+/**
+ * A lifecycle whose listeners can be ordered relative to each other and removed again, and which reports how far its sequence
+ * has progressed. Components that need these features (e.g. the late binding of {@code @OnStage} methods) require a lifecycle
+ * implementing this interface, while plain {@link Lifecycle} implementations keep working for everything else.
+ */
+public interface ExtendedLifecycle extends Lifecycle
+{
+    /**
+     * Adds a listener to a lifecycle stage that is ordered relative to other listeners of the same stage.
+     *
+     * @param stage        The Lifecycle stage on which to be notified.
+     * @param listener     Callback to be invoked when the lifecycle stage is executed.
+     * @param dependencies Name of the listener and the listeners it must run after or before.
+     */
+    void addListener(LifecycleStage stage, LifecycleListener listener, LifecycleDependencies dependencies);
+
+    /**
+     * Adds a listener to a lifecycle stage and returns a handle to remove it again, e.g. when a short lived component is closed.
+     *
+     * @param stage    The Lifecycle stage on which to be notified.
+     * @param listener Callback to be invoked when the lifecycle stage is executed.
+     */
+    LifecycleRegistration register(LifecycleStage stage, LifecycleListener listener);
+
+    /**
+     * Adds a listener to a lifecycle stage that is ordered relative to other listeners of the same stage and returns a handle
+     * to remove it again.
+     *
+     * @param stage        The Lifecycle stage on which to be notified.
+     * @param listener     Callback to be invoked when the lifecycle stage is executed.
+     * @param dependencies Name of the listener and the listeners it must run after or before.
+     */
+    LifecycleRegistration register(LifecycleStage stage, LifecycleListener listener, LifecycleDependencies dependencies);
+
+    /**
+     * Returns the stages of the sequence that have been started, including a stage that is currently executing, in sequence order.
+     */
+    List<LifecycleStage> getStartedStages();
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+/**
+ * Decides what happens to a stage when one of its listeners throws an exception.
+ *
+ * @see AbstractLifecycle#setFailurePolicy(LifecycleStage, FailurePolicy)
+ */
+public enum FailurePolicy
+{
+    /**
+     * No further listeners are started once a listener failed. Listeners that are already running are waited for. The default for
+     * all stages except {@link LifecycleStage#STOP_STAGE}.
+     */
+    FAIL_FAST,
+
+    /**
+     * All listeners are run, including those that depend on a failed listener, and all failures are reported together as a
+     * {@link LifecycleStageException} once the stage is complete. The default for {@link LifecycleStage#STOP_STAGE}, so that one
+     * broken listener does not keep the others from releasing their resources.
+     * <p>
+     * Listeners that time out are still handled according to the {@link TimeoutPolicy} of the stage.
+     */
+    BEST_EFFORT;
+}
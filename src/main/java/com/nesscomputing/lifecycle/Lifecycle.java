@@ -40,6 +40,8 @@ public interface Lifecycle
 
     /**
      * Executes the next stage until the stage requested has been reached.
+     *
+     * @throws IllegalStateException If the cycle ends before this stage is reached.
      */
     void executeTo(final LifecycleStage stage);
 
@@ -0,0 +1,502 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.ImmutableList;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Finds the chain of listeners that bounded the wall clock time of the most recent execution of each stage.
+ * <p>
+ * The chain is built backwards from the listener that finished last. The step before a listener that declared dependencies (see
+ * {@link LifecycleDependencies}) is the dependency that finished last. The step before a listener without dependencies is the
+ * listener that finished last before it started, i.e. the listener it had to wait for to get a thread or its turn in a sequential
+ * stage. Only the listeners on the chain shorten the stage when they get faster; scheduling steps show where more parallelism
+ * would help.
+ * <pre>
+ *   LifecycleCriticalPath criticalPath = new LifecycleCriticalPath(false);
+ *   lifecycle.addObserver(criticalPath);
+ *   lifecycle.executeTo(LifecycleStage.START_STAGE);
+ *   System.out.println(criticalPath.getReport());
+ * </pre>
+ */
+@ThreadSafe
+public class LifecycleCriticalPath extends AbstractLifecycleObserver
+{
+    private static final Log LOG = Log.findLog();
+
+    private final boolean logPaths;
+
+    /** Recordings of the stages that are executing. */
+    @GuardedBy("this")
+    private final Map<LifecycleStage, Recording> recordings = new LinkedHashMap<LifecycleStage, Recording>();
+
+    /** The critical path of the most recent execution of each stage, in execution order. */
+    @GuardedBy("this")
+    private final Map<LifecycleStage, CriticalPath> criticalPaths = new LinkedHashMap<LifecycleStage, CriticalPath>();
+
+    /** Listeners running on each thread. Listeners start and finish on the same thread. */
+    private final ThreadLocal<ArrayDeque<Run>> runs = new ThreadLocal<ArrayDeque<Run>>() {
+        @Override
+        protected ArrayDeque<Run> initialValue()
+        {
+            return new ArrayDeque<Run>();
+        }
+    };
+
+    /** Dependencies reported for the next listener started on each thread. */
+    private final ThreadLocal<List<String>> pendingDependencies = new ThreadLocal<List<String>>();
+
+    /**
+     * @param logPaths If true, the critical path of each stage is logged at info level when the stage finishes.
+     */
+    public LifecycleCriticalPath(final boolean logPaths)
+    {
+        this.logPaths = logPaths;
+    }
+
+    @Override
+    public synchronized void onStageStarting(final LifecycleStage lifecycleStage)
+    {
+        recordings.put(lifecycleStage, new Recording(System.nanoTime()));
+    }
+
+    @Override
+    public void onListenerDependencies(final LifecycleStage lifecycleStage, final String listenerName, final List<String> dependencies)
+    {
+        pendingDependencies.set(dependencies);
+    }
+
+    @Override
+    public void onListenerStarting(final LifecycleStage lifecycleStage, final String listenerName)
+    {
+        final List<String> dependencies = pendingDependencies.get();
+        pendingDependencies.remove();
+
+        final Recording recording;
+        synchronized (this) {
+            recording = recordings.get(lifecycleStage);
+        }
+        runs.get().push(new Run(recording, listenerName, dependencies == null ? Collections.<String>emptyList() : dependencies, System.nanoTime()));
+    }
+
+    @Override
+    public void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        final Run run = runs.get().poll();
+        if (run != null && run.recording != null) {
+            run.finish(System.nanoTime(), failure != null);
+            synchronized (this) {
+                run.recording.runs.add(run);
+            }
+        }
+    }
+
+    @Override
+    public void onStageFinished(final LifecycleStage lifecycleStage, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        final CriticalPath criticalPath;
+        synchronized (this) {
+            final Recording recording = recordings.remove(lifecycleStage);
+            if (recording == null) {
+                return;
+            }
+            criticalPath = recording.analyze(lifecycleStage, wallNanos);
+
+            // Keep the map in execution order.
+            criticalPaths.remove(lifecycleStage);
+            criticalPaths.put(lifecycleStage, criticalPath);
+        }
+
+        if (logPaths) {
+            LOG.info("%s", criticalPath.getReport());
+        }
+    }
+
+    /**
+     * Returns the critical path of the most recent execution of a stage or null if the stage was never executed.
+     */
+    @CheckForNull
+    public synchronized CriticalPath getCriticalPath(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        return criticalPaths.get(lifecycleStage);
+    }
+
+    /**
+     * Returns the critical paths of all stages in the order in which they were executed last.
+     */
+    public synchronized List<CriticalPath> getCriticalPaths()
+    {
+        return ImmutableList.copyOf(criticalPaths.values());
+    }
+
+    /**
+     * Returns a human readable report of the critical paths of all stages.
+     */
+    public String getReport()
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (final CriticalPath criticalPath : getCriticalPaths()) {
+            sb.append(criticalPath.getReport());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the critical paths of all stages as a JSON array.
+     */
+    public String getJsonReport()
+    {
+        final StringBuilder sb = new StringBuilder("[");
+        for (final CriticalPath criticalPath : getCriticalPaths()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(criticalPath.toJson());
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * The listeners that ran in one execution of a stage.
+     */
+    private static final class Recording
+    {
+        private final long stageStartNanos;
+        private final List<Run> runs = new ArrayList<Run>();
+
+        private Recording(final long stageStartNanos)
+        {
+            this.stageStartNanos = stageStartNanos;
+        }
+
+        private CriticalPath analyze(final LifecycleStage lifecycleStage, final long wallNanos)
+        {
+            final Run [] sorted = runs.toArray(new Run [runs.size()]);
+            Arrays.sort(sorted, Run.BY_END);
+
+            final List<Step> steps = new ArrayList<Step>();
+            int current = sorted.length - 1;
+            while (current >= 0) {
+                final Run run = sorted[current];
+
+                // The dependency that finished last or, without dependencies, the listener that finished last before this one started.
+                // Only earlier entries are considered so the walk always ends.
+                int blocker = lastDependency(sorted, run, current);
+                final boolean dependency = blocker >= 0;
+                if (!dependency) {
+                    blocker = lastEndingBefore(sorted, run.startNanos, current);
+                }
+                final long readyNanos = blocker >= 0 ? sorted[blocker].endNanos : stageStartNanos;
+
+                steps.add(new Step(run.listenerName,
+                                   run.startNanos - stageStartNanos,
+                                   run.endNanos - run.startNanos,
+                                   Math.max(0L, run.startNanos - readyNanos),
+                                   dependency,
+                                   run.failed));
+                current = blocker;
+            }
+
+            Collections.reverse(steps);
+            return new CriticalPath(lifecycleStage, wallNanos, sorted.length, steps);
+        }
+
+        private static int lastDependency(final Run [] sorted, final Run run, final int limit)
+        {
+            if (run.dependencies.isEmpty()) {
+                return -1;
+            }
+            for (int i = limit - 1; i >= 0; i--) {
+                if (sorted[i].endNanos <= run.startNanos && run.dependencies.contains(sorted[i].listenerName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int lastEndingBefore(final Run [] sorted, final long nanos, final int limit)
+        {
+            int low = 0;
+            int high = limit - 1;
+            int result = -1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (sorted[middle].endNanos <= nanos) {
+                    result = middle;
+                    low = middle + 1;
+                }
+                else {
+                    high = middle - 1;
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Run
+    {
+        private static final Comparator<Run> BY_END = new Comparator<Run>() {
+            @Override
+            public int compare(final Run first, final Run second)
+            {
+                return Long.compare(first.endNanos, second.endNanos);
+            }
+        };
+
+        private final Recording recording;
+        private final String listenerName;
+        private final List<String> dependencies;
+        private final long startNanos;
+        private long endNanos;
+        private boolean failed;
+
+        private Run(final Recording recording, final String listenerName, final List<String> dependencies, final long startNanos)
+        {
+            this.recording = recording;
+            this.listenerName = listenerName;
+            this.dependencies = dependencies;
+            this.startNanos = startNanos;
+        }
+
+        private void finish(final long endNanos, final boolean failed)
+        {
+            this.endNanos = endNanos;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * The critical path of a single stage execution.
+     */
+    public static class CriticalPath
+    {
+        private final LifecycleStage lifecycleStage;
+        private final long wallNanos;
+        private final int listenerCount;
+        private final List<Step> steps;
+
+        CriticalPath(@Nonnull final LifecycleStage lifecycleStage, final long wallNanos, final int listenerCount, @Nonnull final List<Step> steps)
+        {
+            this.lifecycleStage = lifecycleStage;
+            this.wallNanos = wallNanos;
+            this.listenerCount = listenerCount;
+            this.steps = ImmutableList.copyOf(steps);
+        }
+
+        public LifecycleStage getLifecycleStage()
+        {
+            return lifecycleStage;
+        }
+
+        /**
+         * Returns the wall clock time of the stage in nanoseconds.
+         */
+        public long getWallNanos()
+        {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the number of listeners that finished during the stage.
+         */
+        public int getListenerCount()
+        {
+            return listenerCount;
+        }
+
+        /**
+         * Returns the listeners on the critical path in the order in which they ran.
+         */
+        public List<Step> getSteps()
+        {
+            return steps;
+        }
+
+        /**
+         * Returns the time spent in listeners on the critical path in nanoseconds.
+         */
+        public long getPathNanos()
+        {
+            long result = 0;
+            for (final Step step : steps) {
+                result += step.getWallNanos();
+            }
+            return result;
+        }
+
+        public String getReport()
+        {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Stage '%s': %d ms wall, critical path %d ms in %d of %d listeners%n",
+                                    lifecycleStage.getName(),
+                                    TimeUnit.NANOSECONDS.toMillis(wallNanos),
+                                    TimeUnit.NANOSECONDS.toMillis(getPathNanos()),
+                                    steps.size(),
+                                    listenerCount));
+            for (final Step step : steps) {
+                sb.append(String.format("    %8d ms wall, %8d ms waiting (%s): %s%s%n",
+                                        TimeUnit.NANOSECONDS.toMillis(step.getWallNanos()),
+                                        TimeUnit.NANOSECONDS.toMillis(step.getWaitNanos()),
+                                        step.isDependency() ? "dependency" : "scheduling",
+                                        step.getListenerName(),
+                                        step.isFailed() ? " (failed)" : ""));
+            }
+            return sb.toString();
+        }
+
+        public String toJson()
+        {
+            final StringBuilder sb = new StringBuilder("{");
+            sb.append("\"stage\":");
+            appendJsonString(sb, lifecycleStage.getName());
+            sb.append(",\"wallNanos\":").append(wallNanos);
+            sb.append(",\"pathNanos\":").append(getPathNanos());
+            sb.append(",\"listenerCount\":").append(listenerCount);
+            sb.append(",\"steps\":[");
+            for (int i = 0; i < steps.size(); i++) {
+                final Step step = steps.get(i);
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"listener\":");
+                appendJsonString(sb, step.getListenerName());
+                sb.append(",\"offsetNanos\":").append(step.getOffsetNanos());
+                sb.append(",\"wallNanos\":").append(step.getWallNanos());
+                sb.append(",\"waitNanos\":").append(step.getWaitNanos());
+                sb.append(",\"dependency\":").append(step.isDependency());
+                sb.append(",\"failed\":").append(step.isFailed());
+                sb.append('}');
+            }
+            return sb.append("]}").toString();
+        }
+
+        private static void appendJsonString(final StringBuilder sb, final String value)
+        {
+            if (value == null) {
+                sb.append("null");
+                return;
+            }
+
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        }
+                        else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+
+    /**
+     * A listener on the critical path.
+     */
+    public static class Step
+    {
+        private final String listenerName;
+        private final long offsetNanos;
+        private final long wallNanos;
+        private final long waitNanos;
+        private final boolean dependency;
+        private final boolean failed;
+
+        Step(final String listenerName, final long offsetNanos, final long wallNanos, final long waitNanos, final boolean dependency, final boolean failed)
+        {
+            this.listenerName = listenerName;
+            this.offsetNanos = offsetNanos;
+            this.wallNanos = wallNanos;
+            this.waitNanos = waitNanos;
+            this.dependency = dependency;
+            this.failed = failed;
+        }
+
+        public String getListenerName()
+        {
+            return listenerName;
+        }
+
+        /**
+         * Returns the time from the start of the stage to the start of the listener in nanoseconds.
+         */
+        public long getOffsetNanos()
+        {
+            return offsetNanos;
+        }
+
+        public long getWallNanos()
+        {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the time between the end of the previous step (or the start of the stage) and the start of the listener in nanoseconds.
+         */
+        public long getWaitNanos()
+        {
+            return waitNanos;
+        }
+
+        /**
+         * Returns true if the listener depends on the previous step, false if it was only scheduled after it or is the first step.
+         */
+        public boolean isDependency()
+        {
+            return dependency;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
+        }
+    }
+}
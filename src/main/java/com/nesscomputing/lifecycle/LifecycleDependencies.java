@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Names a lifecycle listener and declares which other listeners of the same stage it must run after or before.
+ * Dependencies refer to listener names; if multiple listeners share a name, a dependency applies to all of them.
+ * Dependencies on names that are not registered for a stage are ignored.
+ * <p>
+ * Dependencies are declared in "startup order". For the STOP stage, the ordering is reversed, so that dependencies are torn down after
+ * the listeners that depend on them.
+ * <pre>
+ *   lifecycle.addListener(LifecycleStage.START_STAGE, listener, LifecycleDependencies.named("http").after("database", "cache"));
+ * </pre>
+ */
+public final class LifecycleDependencies
+{
+    /** No name and no dependencies. Listeners registered with this are ordered only by registration order. */
+    public static final LifecycleDependencies NONE = new LifecycleDependencies(null, ImmutableSet.<String>of(), ImmutableSet.<String>of(), false);
+
+    private final String name;
+    private final Set<String> after;
+    private final Set<String> before;
+    private final boolean beforeAll;
+
+    /**
+     * Returns dependencies for a listener with the given name.
+     */
+    public static LifecycleDependencies named(@Nonnull final String name)
+    {
+        return new LifecycleDependencies(name, ImmutableSet.<String>of(), ImmutableSet.<String>of(), false);
+    }
+
+    private LifecycleDependencies(@Nullable final String name, @Nonnull final Set<String> after, @Nonnull final Set<String> before, final boolean beforeAll)
+    {
+        this.name = name;
+        this.after = after;
+        this.before = before;
+        this.beforeAll = beforeAll;
+    }
+
+    /**
+     * Returns a copy of these dependencies that also requires the listener to run after all listeners with the given names.
+     * For the STOP stage, the listener runs before them.
+     */
+    public LifecycleDependencies after(@Nonnull final String ... names)
+    {
+        return new LifecycleDependencies(name, ImmutableSet.<String>builder().addAll(after).addAll(Arrays.asList(names)).build(), before, beforeAll);
+    }
+
+    /**
+     * Returns a copy of these dependencies that also requires the listener to run before all listeners with the given names.
+     * For the STOP stage, the listener runs after them.
+     */
+    public LifecycleDependencies before(@Nonnull final String ... names)
+    {
+        return new LifecycleDependencies(name, after, ImmutableSet.<String>builder().addAll(before).addAll(Arrays.asList(names)).build(), beforeAll);
+    }
+
+    /**
+     * Returns a copy of these dependencies that also requires the listener to run before all other listeners of the stage, whether
+     * they are named or not, except for other listeners that run before all. For the STOP stage, the listener runs after them.
+     */
+    public LifecycleDependencies beforeAll()
+    {
+        return new LifecycleDependencies(name, after, before, true);
+    }
+
+    /**
+     * Returns the name of the listener or null if the listener is anonymous.
+     */
+    @Nullable
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the names of listeners that must run before this listener, in startup order.
+     */
+    public Set<String> getAfter()
+    {
+        return after;
+    }
+
+    /**
+     * Returns the names of listeners that must run after this listener, in startup order.
+     */
+    public Set<String> getBefore()
+    {
+        return before;
+    }
+
+    /**
+     * Returns true if the listener must run before all other listeners of the stage, in startup order.
+     */
+    public boolean isBeforeAll()
+    {
+        return beforeAll;
+    }
+
+    /**
+     * Returns true if any ordering constraints were declared.
+     */
+    public boolean hasDependencies()
+    {
+        return beforeAll || !(after.isEmpty() && before.isEmpty());
+    }
+
+    private transient String toString;
+
+    @Override
+    public String toString() {
+        if (toString == null) {
+            toString = new ToStringBuilder(this)
+                .append("name", name)
+                .append("after", after)
+                .append("before", before)
+                .append("beforeAll", beforeAll)
+                .toString();
+        }
+        return toString;
+    }
+}
@@ -15,28 +15,51 @@
  */
 package com.nesscomputing.lifecycle;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 
 /**
  * A simple LifecycleDriver. Controls switching between lifecycle stages, allows stages to be fired multiple times and does not enforce the sequence.
+ * <p>
+ * Stepping through the sequence (see {@link Lifecycle#executeNext()} and {@link Lifecycle#executeTo(LifecycleStage)}) is safe from multiple
+ * threads: the state of the driver is replaced atomically, every stage of the sequence is started at most once and a thread that wants to
+ * move on while another thread executes a stage waits for that stage to complete instead of executing it again.
+ * <p>
+ * In addition to the sequence, a driver may declare {@link RepeatableStage}s which are never reached by stepping through the sequence
+ * but can be executed any number of times while the sequence is inside their window.
  */
 public class LifecycleDriver implements LifecycleListener
 {
     /** List of all stages in this cycle. */
     private final LinkedList<LifecycleStage> lifecycleStages = new LinkedList<LifecycleStage>();
 
-    /** Map to find the next stage. */
-    private final Map<LifecycleStage, LifecycleStage> stageMap = new HashMap<LifecycleStage, LifecycleStage>();
+    /** Successor of each stage, indexed by stage ordinal. */
+    private final LifecycleStage [] successors;
+
+    /** Position of each stage in the sequence, indexed by stage ordinal. -1 for stages that are not part of the sequence. */
+    private final int [] positions;
+
+    /** Repeatable stages declared for this driver. */
+    private final List<RepeatableStage> repeatableStages;
+
+    /** Repeatable stages, indexed by stage ordinal. Null for stages that are not repeatable. */
+    private final RepeatableStage [] repeatable;
 
-    /** The next stage to fire */
-    private LifecycleStage nextStage = null;
+    /** The next stage to fire and the stage currently executed by the sequence. */
+    private final AtomicReference<State> state = new AtomicReference<State>();
 
     /**
      * Builds a new Lifecycler. Stages can be passed as C'tor arguments.
@@ -44,16 +67,49 @@ public class LifecycleDriver implements LifecycleListener
      */
     public LifecycleDriver(@Nonnull final LifecycleStage ...stages)
     {
-        for (LifecycleStage stage : stages) {
-            if (!lifecycleStages.isEmpty()) {
-                stageMap.put(lifecycleStages.getLast(), stage);
-            }
+        this(Arrays.asList(stages), Collections.<RepeatableStage>emptyList());
+    }
 
-            stageMap.put(stage, null);
+    /**
+     * Builds a new Lifecycler with repeatable stages.
+     *
+     * @param stages Stages of the sequence.
+     * @param repeatableStages Stages that can be executed any number of times. They must not be part of the sequence and their
+     *                         window must refer to stages of the sequence.
+     */
+    public LifecycleDriver(@Nonnull final List<LifecycleStage> stages, @Nonnull final List<RepeatableStage> repeatableStages)
+    {
+        int maxOrdinal = -1;
+        for (LifecycleStage stage : stages) {
             lifecycleStages.add(stage);
+            maxOrdinal = Math.max(maxOrdinal, stage.getOrdinal());
+        }
+
+        successors = new LifecycleStage [maxOrdinal + 1];
+        positions = new int [maxOrdinal + 1];
+        Arrays.fill(positions, -1);
+
+        for (int i = 0; i < stages.size(); i++) {
+            successors[stages.get(i).getOrdinal()] = (i + 1 < stages.size()) ? stages.get(i + 1) : null;
+            positions[stages.get(i).getOrdinal()] = i;
+        }
+
+        int maxRepeatableOrdinal = -1;
+        for (RepeatableStage repeatableStage : repeatableStages) {
+            final LifecycleStage stage = repeatableStage.getLifecycleStage();
+            Preconditions.checkArgument(positionOf(stage) < 0, "Stage '%s' is part of the sequence and can not be repeatable", stage.getName());
+            Preconditions.checkArgument(repeatableStage.getAfter() == null || positionOf(repeatableStage.getAfter()) >= 0, "Stage '%s' is not in this lifecycle driver!", repeatableStage.getAfter());
+            Preconditions.checkArgument(repeatableStage.getBefore() == null || positionOf(repeatableStage.getBefore()) >= 0, "Stage '%s' is not in this lifecycle driver!", repeatableStage.getBefore());
+            maxRepeatableOrdinal = Math.max(maxRepeatableOrdinal, stage.getOrdinal());
         }
 
-        nextStage = lifecycleStages.getFirst();
+        this.repeatableStages = ImmutableList.copyOf(repeatableStages);
+        this.repeatable = new RepeatableStage [maxRepeatableOrdinal + 1];
+        for (RepeatableStage repeatableStage : repeatableStages) {
+            repeatable[repeatableStage.getLifecycleStage().getOrdinal()] = repeatableStage;
+        }
+
+        state.set(new State(lifecycleStages.getFirst(), null));
     }
 
     /**
@@ -64,25 +120,184 @@ public class LifecycleDriver implements LifecycleListener
         return Collections.unmodifiableList(lifecycleStages);
     }
 
+    /**
+     * Returns the repeatable stages of this lifecycle driver.
+     */
+    public List<RepeatableStage> getRepeatableStages()
+    {
+        return repeatableStages;
+    }
+
+    /**
+     * Returns true if the stage is a repeatable stage of this driver.
+     */
+    public boolean isRepeatable(@Nonnull final LifecycleStage stage)
+    {
+        return repeatableOf(stage) != null;
+    }
+
     /**
      * Returns the next stage that will be executed.
      */
     public LifecycleStage getNextStage()
     {
-        return nextStage;
+        return state.get().nextStage;
+    }
+
+    /**
+     * Returns the stages of the sequence that have been started, including a stage that is currently executing.
+     */
+    public List<LifecycleStage> getStartedStages()
+    {
+        final LifecycleStage nextStage = state.get().nextStage;
+        final int started = (nextStage == null) ? lifecycleStages.size() : positionOf(nextStage);
+        return ImmutableList.copyOf(lifecycleStages.subList(0, started));
     }
 
+    /**
+     * Moves the sequence past a stage. Lifecycles track the sequence through {@link #beginNextStage(LifecycleStage)} and
+     * {@link #beginStage(LifecycleStage)} and do not register the driver as a listener.
+     */
     @Override
     public void onStage(@Nonnull final LifecycleStage stage)
     {
-        if (stageMap.containsKey(stage)) {
-            nextStage = stageMap.get(stage);
+        if (positionOf(stage) >= 0) {
+            final LifecycleStage nextStage = successors[stage.getOrdinal()];
+            State current;
+            do {
+                current = state.get();
+            } while (!state.compareAndSet(current, new State(nextStage, current.running)));
         }
         else {
             throw new IllegalStateException("Stage '" + stage.getName() + "' is not in this lifecycle driver!");
        }
     }
 
+    /**
+     * Starts the next stage of the sequence or joins the stage the sequence is currently executing. If the returned run is owned by the
+     * calling thread, the caller must execute the stage and then call {@link #finishStage(StageRun, Throwable)}, otherwise it may wait
+     * for the stage with {@link StageRun#await()}.
+     *
+     * @param target If not null, no new stage is started if this stage has already been passed.
+     * @return null if the sequence has ended or the target stage has been passed.
+     *
+     * @throws IllegalStateException If called from a listener of the current stage.
+     */
+    @CheckForNull
+    StageRun beginNextStage(@Nullable final LifecycleStage target)
+    {
+        while (true) {
+            final State current = state.get();
+
+            if (current.running != null) {
+                checkNotInside(current.running);
+                return current.running;
+            }
+
+            if (current.nextStage == null || (target != null && positionOf(target) < positionOf(current.nextStage))) {
+                return null;
+            }
+
+            final StageRun run = new StageRun(current.nextStage);
+            if (state.compareAndSet(current, new State(successors[current.nextStage.getOrdinal()], run))) {
+                return run;
+            }
+        }
+    }
+
+    /**
+     * Starts a stage of the sequence out of order, e.g. because it was executed directly. Waits for a stage the sequence is currently
+     * executing on another thread first. The caller must execute the stage and then call {@link #finishStage(StageRun, Throwable)};
+     * afterwards the sequence continues with the successor of the stage.
+     *
+     * @throws IllegalStateException If called from a listener of the current stage.
+     */
+    StageRun beginStage(@Nonnull final LifecycleStage stage)
+    {
+        Preconditions.checkArgument(positionOf(stage) >= 0, "Stage '%s' is not in this lifecycle driver!", stage.getName());
+
+        while (true) {
+            final State current = state.get();
+
+            if (current.running != null) {
+                checkNotInside(current.running);
+                current.running.awaitDone();
+                continue;
+            }
+
+            final StageRun run = new StageRun(stage);
+            if (state.compareAndSet(current, new State(successors[stage.getOrdinal()], run))) {
+                return run;
+            }
+        }
+    }
+
+    private static void checkNotInside(final StageRun run)
+    {
+        if (run.isOwner() || run.isEntered()) {
+            throw new IllegalStateException(String.format("Stage '%s' is executing, can not move to another stage from one of its listeners", run.getLifecycleStage().getName()));
+        }
+    }
+
+    /**
+     * Returns true if the stage is part of the sequence.
+     */
+    boolean isSequenceStage(@Nonnull final LifecycleStage stage)
+    {
+        return positionOf(stage) >= 0;
+    }
+
+    /**
+     * Completes a stage started with {@link #beginNextStage(LifecycleStage)} and releases all threads waiting for it.
+     *
+     * @param failure The exception that failed the stage or null.
+     */
+    void finishStage(@Nonnull final StageRun run, @Nullable final Throwable failure)
+    {
+        State current;
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, new State(current.nextStage, null)));
+
+        run.finish(failure);
+    }
+
+    /**
+     * Checks that a repeatable stage may be executed at the current position of the sequence.
+     *
+     * @throws IllegalStateException If the stage is not repeatable or the sequence is outside of the window of the stage.
+     */
+    void checkRepeatable(@Nonnull final LifecycleStage stage)
+    {
+        final RepeatableStage repeatableStage = repeatableOf(stage);
+        if (repeatableStage == null) {
+            throw new IllegalStateException("Stage '" + stage.getName() + "' is not a repeatable stage of this lifecycle driver!");
+        }
+
+        final LifecycleStage nextStage = state.get().nextStage;
+        final int nextPosition = (nextStage == null) ? lifecycleStages.size() : positionOf(nextStage);
+
+        if (repeatableStage.getAfter() != null && positionOf(repeatableStage.getAfter()) >= nextPosition) {
+            throw new IllegalStateException(String.format("Stage '%s' can not be executed before stage '%s'", stage.getName(), repeatableStage.getAfter().getName()));
+        }
+        if (repeatableStage.getBefore() != null && positionOf(repeatableStage.getBefore()) < nextPosition) {
+            throw new IllegalStateException(String.format("Stage '%s' can not be executed after stage '%s'", stage.getName(), repeatableStage.getBefore().getName()));
+        }
+    }
+
+    @CheckForNull
+    private RepeatableStage repeatableOf(final LifecycleStage stage)
+    {
+        final int ordinal = stage.getOrdinal();
+        return ordinal < repeatable.length ? repeatable[ordinal] : null;
+    }
+
+    private int positionOf(final LifecycleStage stage)
+    {
+        final int ordinal = stage.getOrdinal();
+        return ordinal < positions.length ? positions[ordinal] : -1;
+    }
+
     @Override
     public String toString()
     {
@@ -90,7 +305,7 @@ public class LifecycleDriver implements LifecycleListener
 
         for (Iterator<LifecycleStage> it = lifecycleStages.iterator(); it.hasNext(); ) {
             LifecycleStage le = it.next();
-            boolean ne = le.equals(nextStage);
+            boolean ne = le.equals(getNextStage());
             if (ne) {
                 sb.append('*');
             }
@@ -108,4 +323,112 @@ public class LifecycleDriver implements LifecycleListener
         sb.append(']');
         return sb.toString();
     }
+
+    private static final class State
+    {
+        private final LifecycleStage nextStage;
+        private final StageRun running;
+
+        private State(@Nullable final LifecycleStage nextStage, @Nullable final StageRun running)
+        {
+            this.nextStage = nextStage;
+            this.running = running;
+        }
+    }
+
+    /**
+     * A stage of the sequence that is being executed.
+     */
+    static final class StageRun
+    {
+        /** The stage run whose listener the current thread is running, if any. */
+        private static final ThreadLocal<StageRun> ENTERED = new ThreadLocal<StageRun>();
+
+        private final LifecycleStage lifecycleStage;
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable failure = null;
+
+        private StageRun(@Nonnull final LifecycleStage lifecycleStage)
+        {
+            this.lifecycleStage = lifecycleStage;
+        }
+
+        LifecycleStage getLifecycleStage()
+        {
+            return lifecycleStage;
+        }
+
+        /**
+         * Returns true if the calling thread started this stage and must execute it.
+         */
+        boolean isOwner()
+        {
+            return owner == Thread.currentThread();
+        }
+
+        /**
+         * Marks the current thread as running a listener of this stage until {@link #exit(StageRun)} is called.
+         *
+         * @return The run to pass to {@link #exit(StageRun)}.
+         */
+        StageRun enter()
+        {
+            final StageRun previous = ENTERED.get();
+            ENTERED.set(this);
+            return previous;
+        }
+
+        /**
+         * Ends a listener invocation started with {@link #enter()}.
+         */
+        static void exit(@Nullable final StageRun previous)
+        {
+            if (previous == null) {
+                ENTERED.remove();
+            }
+            else {
+                ENTERED.set(previous);
+            }
+        }
+
+        /**
+         * Returns true if the calling thread is running a listener of this stage.
+         */
+        boolean isEntered()
+        {
+            return ENTERED.get() == this;
+        }
+
+        private void finish(final Throwable failure)
+        {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        private void awaitDone()
+        {
+            try {
+                done.await();
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw Throwables.propagate(ie);
+            }
+        }
+
+        /**
+         * Waits until the stage has been executed by its owner.
+         *
+         * @throws LifecycleStageException If the stage failed.
+         */
+        void await()
+        {
+            awaitDone();
+
+            if (failure != null) {
+                throw new LifecycleStageException(lifecycleStage, Collections.singletonList(failure));
+            }
+        }
+    }
 }
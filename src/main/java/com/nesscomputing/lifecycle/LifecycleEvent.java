@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * A stage transition published by a {@link LifecycleEventStream}.
+ */
+public final class LifecycleEvent
+{
+    public enum Type
+    {
+        STAGE_STARTING, STAGE_FINISHED, STAGE_FAILED, LISTENER_STARTING, LISTENER_FINISHED, LISTENER_FAILED, LISTENER_TIMED_OUT, LISTENER_SKIPPED;
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final LifecycleStage lifecycleStage;
+    private final String listenerName;
+    private final long timestamp;
+    private final long nanoTime;
+    private final long elapsedNanos;
+    private final Throwable failure;
+
+    LifecycleEvent(final long sequence,
+                   @Nonnull final Type type,
+                   @Nonnull final LifecycleStage lifecycleStage,
+                   @Nullable final String listenerName,
+                   final long elapsedNanos,
+                   @Nullable final Throwable failure)
+    {
+        this.sequence = sequence;
+        this.type = type;
+        this.lifecycleStage = lifecycleStage;
+        this.listenerName = listenerName;
+        this.timestamp = System.currentTimeMillis();
+        this.nanoTime = System.nanoTime();
+        this.elapsedNanos = elapsedNanos;
+        this.failure = failure;
+    }
+
+    /**
+     * Returns the position of the event in its stream. Sequence numbers start at 0 and have no gaps.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public LifecycleStage getLifecycleStage()
+    {
+        return lifecycleStage;
+    }
+
+    /**
+     * Returns the name of the listener or null for stage events.
+     */
+    @CheckForNull
+    public String getListenerName()
+    {
+        return listenerName;
+    }
+
+    /**
+     * Returns the time of the event in milliseconds since the epoch.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Returns {@link System#nanoTime()} at the time of the event, to measure the time between events.
+     */
+    public long getNanoTime()
+    {
+        return nanoTime;
+    }
+
+    /**
+     * Returns the wall clock time of the stage or listener in nanoseconds for finished, failed and timed out events, -1 otherwise.
+     */
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the exception of a failed event or null.
+     */
+    @CheckForNull
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this).append("sequence", sequence)
+            .append("type", type)
+            .append("lifecycleStage", lifecycleStage.getName())
+            .append("listenerName", listenerName)
+            .append("timestamp", timestamp)
+            .append("elapsedNanos", elapsedNanos)
+            .append("failure", failure)
+            .toString();
+    }
+}
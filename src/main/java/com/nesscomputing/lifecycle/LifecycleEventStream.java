@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.nesscomputing.lifecycle.LifecycleEvent.Type;
+
+/**
+ * Publishes the transitions of a lifecycle as a stream of {@link LifecycleEvent}s, e.g. for health checks, metrics exporters or
+ * deployment tooling.
+ * <p>
+ * Events are written into a fixed size ring buffer without taking locks, so publishing never waits for a consumer. Consumers read
+ * the stream at their own pace through a {@link Cursor}. A consumer that falls behind by more than the capacity of the buffer
+ * loses the oldest events, which it can detect with {@link Cursor#getDropped()}.
+ * <pre>
+ *   LifecycleEventStream events = new LifecycleEventStream(1024);
+ *   lifecycle.addObserver(events);
+ *   LifecycleEventStream.Cursor cursor = events.newCursor();
+ *   ...
+ *   for (LifecycleEvent event = cursor.poll(); event != null; event = cursor.poll()) {
+ *       ...
+ *   }
+ * </pre>
+ */
+@ThreadSafe
+public class LifecycleEventStream extends AbstractLifecycleObserver
+{
+    private final AtomicReferenceArray<LifecycleEvent> buffer;
+    private final int mask;
+
+    /** Sequence number of the next event. */
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * Creates a new event stream.
+     *
+     * @param capacity Number of events kept for consumers. Rounded up to a power of two.
+     */
+    public LifecycleEventStream(final int capacity)
+    {
+        Preconditions.checkArgument(capacity > 0 && capacity <= (1 << 30), "capacity must be between 1 and 2^30");
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.buffer = new AtomicReferenceArray<LifecycleEvent>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the number of events kept for consumers.
+     */
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Returns a cursor that reads all events published after this call.
+     */
+    public Cursor newCursor()
+    {
+        return new Cursor(nextSequence.get());
+    }
+
+    /**
+     * Returns a cursor that starts with the oldest event still in the buffer.
+     */
+    public Cursor newCursorFromOldest()
+    {
+        return new Cursor(Math.max(0, nextSequence.get() - buffer.length()));
+    }
+
+    @Override
+    public void onStageStarting(final LifecycleStage lifecycleStage)
+    {
+        publish(Type.STAGE_STARTING, lifecycleStage, null, -1L, null);
+    }
+
+    @Override
+    public void onStageFinished(final LifecycleStage lifecycleStage, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        publish(failure == null ? Type.STAGE_FINISHED : Type.STAGE_FAILED, lifecycleStage, null, wallNanos, failure);
+    }
+
+    @Override
+    public void onListenerStarting(final LifecycleStage lifecycleStage, final String listenerName)
+    {
+        publish(Type.LISTENER_STARTING, lifecycleStage, listenerName, -1L, null);
+    }
+
+    @Override
+    public void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        publish(failure == null ? Type.LISTENER_FINISHED : Type.LISTENER_FAILED, lifecycleStage, listenerName, wallNanos, failure);
+    }
+
+    @Override
+    public void onListenerTimedOut(final LifecycleStage lifecycleStage, final String listenerName, final long elapsedNanos)
+    {
+        publish(Type.LISTENER_TIMED_OUT, lifecycleStage, listenerName, elapsedNanos, null);
+    }
+
+    @Override
+    public void onListenerSkipped(final LifecycleStage lifecycleStage, final String listenerName)
+    {
+        publish(Type.LISTENER_SKIPPED, lifecycleStage, listenerName, -1L, null);
+    }
+
+    private void publish(final Type type, final LifecycleStage lifecycleStage, final String listenerName, final long elapsedNanos, final Throwable failure)
+    {
+        final long sequence = nextSequence.getAndIncrement();
+        final LifecycleEvent event = new LifecycleEvent(sequence, type, lifecycleStage, listenerName, elapsedNanos, failure);
+        final int index = (int) (sequence & mask);
+
+        // A slow publisher must not replace a newer event that another publisher already wrote after the buffer wrapped around,
+        // otherwise cursors would wait for that newer event forever. Its event is lost instead.
+        while (true) {
+            final LifecycleEvent current = buffer.get(index);
+            if (current != null && current.getSequence() > sequence) {
+                return;
+            }
+            if (buffer.compareAndSet(index, current, event)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the events of a stream in order. A cursor must only be used by one thread at a time.
+     */
+    @NotThreadSafe
+    public final class Cursor
+    {
+        private long position;
+        private long dropped = 0;
+
+        private Cursor(final long position)
+        {
+            this.position = position;
+        }
+
+        /**
+         * Returns the next event or null if no new event has been published yet. Never blocks.
+         */
+        @CheckForNull
+        public LifecycleEvent poll()
+        {
+            while (true) {
+                final LifecycleEvent event = buffer.get((int) (position & mask));
+                if (event == null || event.getSequence() < position) {
+                    final long oldest = nextSequence.get() - buffer.length();
+                    if (oldest <= position) {
+                        // Not yet published (or still being published).
+                        return null;
+                    }
+
+                    // The publisher of this event fell behind by more than the capacity, skip to the oldest event that can still be in the buffer.
+                    dropped += oldest - position;
+                    position = oldest;
+                    continue;
+                }
+
+                if (event.getSequence() == position) {
+                    position++;
+                    return event;
+                }
+
+                // The slot was overwritten, skip to the oldest event that can still be in the buffer.
+                final long oldest = Math.max(position + 1, nextSequence.get() - buffer.length());
+                dropped += oldest - position;
+                position = oldest;
+            }
+        }
+
+        /**
+         * Adds all available events to the collection.
+         *
+         * @return The number of events added.
+         */
+        public int drainTo(@Nonnull final Collection<? super LifecycleEvent> events)
+        {
+            int count = 0;
+            for (LifecycleEvent event = poll(); event != null; event = poll()) {
+                events.add(event);
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Returns the sequence number of the next event this cursor will return.
+         */
+        public long getPosition()
+        {
+            return position;
+        }
+
+        /**
+         * Returns the number of events this cursor missed because they were overwritten before they were read.
+         */
+        public long getDropped()
+        {
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Executors suitable for {@link AbstractLifecycle#setExecutor(java.util.concurrent.Executor)}.
+ */
+public final class LifecycleExecutors
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Executors#newVirtualThreadPerTaskExecutor() if the runtime has it and it can be used, otherwise null. */
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadFactoryMethod();
+
+    private LifecycleExecutors()
+    {
+    }
+
+    /**
+     * Returns true if the runtime supports virtual threads and they are enabled, i.e. not a preview feature that was left disabled.
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Returns an executor that runs each listener on its own virtual thread. Virtual threads are cheap to create and block,
+     * so all I/O bound listeners of a stage can run at the same time without sizing a thread pool for them.
+     * <p>
+     * If the runtime does not support virtual threads, a pool of at most {@code fallbackThreads} daemon threads is returned
+     * instead (see {@link #newBoundedExecutor(int)}).
+     */
+    public static ExecutorService newVirtualThreadExecutor(final int fallbackThreads)
+    {
+        Preconditions.checkArgument(fallbackThreads > 0, "fallbackThreads must be positive");
+
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            }
+            catch (IllegalAccessException e) {
+                LOG.warn(e, "Could not create virtual thread executor, using %d platform threads", fallbackThreads);
+            }
+            catch (InvocationTargetException e) {
+                // Virtual threads are a preview feature on some runtimes.
+                LOG.warn(e.getCause(), "Could not create virtual thread executor, using %d platform threads", fallbackThreads);
+            }
+        }
+        return newBoundedExecutor(fallbackThreads);
+    }
+
+    /**
+     * Returns a pool of at most {@code threads} daemon threads. Idle threads are discarded after a minute, so the pool does not hold on
+     * to threads between stages.
+     */
+    public static ExecutorService newBoundedExecutor(final int threads)
+    {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                                                                   1L, TimeUnit.MINUTES,
+                                                                   new LinkedBlockingQueue<Runnable>(),
+                                                                   new ThreadFactoryBuilder().setDaemon(true).setNameFormat("lifecycle-listener-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Looks up the virtual thread factory method and creates one executor with it. Some runtimes have the method but throw when it is
+     * called, e.g. when virtual threads are a preview feature that was not enabled.
+     */
+    private static Method findVirtualThreadFactoryMethod()
+    {
+        final Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+
+        try {
+            ((ExecutorService) method.invoke(null)).shutdown();
+            return method;
+        }
+        catch (InvocationTargetException e) {
+            LOG.debug(e.getCause(), "Virtual threads are not available");
+            return null;
+        }
+        catch (Exception e) {
+            LOG.debug(e, "Virtual threads are not available");
+            return null;
+        }
+        catch (LinkageError e) {
+            LOG.debug(e, "Virtual threads are not available");
+            return null;
+        }
+    }
+}
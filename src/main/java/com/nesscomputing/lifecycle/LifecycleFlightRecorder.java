@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Throwables;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Emits Java Flight Recorder events for the execution of stages and listeners, so that flight recordings show lifecycle work as
+ * labeled spans next to CPU, allocation and lock samples.
+ * <ul>
+ *   <li><code>com.nesscomputing.lifecycle.Stage</code> spans a stage, with the stage name and the failure if any.</li>
+ *   <li><code>com.nesscomputing.lifecycle.Listener</code> spans a listener, with the stage name, the listener name (the name from its
+ *   {@link LifecycleDependencies} or its string representation, e.g. the annotated method) and the failure if any.</li>
+ * </ul>
+ * The events are only recorded if they are enabled in a recording, e.g. with
+ * <code>-XX:StartFlightRecording:settings=lifecycle.jfc</code> or in JDK Mission Control. If a stage or listener is not
+ * recorded, the observer only costs a check of the event type.
+ * <p>
+ * The events are defined through <code>jdk.jfr.EventFactory</code> at runtime, so this observer does nothing on runtimes without
+ * the <code>jdk.jfr</code> module (see {@link #isAvailable()}).
+ */
+@ThreadSafe
+public class LifecycleFlightRecorder extends AbstractLifecycleObserver
+{
+    private static final Log LOG = Log.findLog();
+
+    public static final String STAGE_EVENT_NAME = "com.nesscomputing.lifecycle.Stage";
+    public static final String LISTENER_EVENT_NAME = "com.nesscomputing.lifecycle.Listener";
+
+    /** Event of a span that is not recorded. */
+    private static final Object NOT_RECORDED = new Object();
+
+    private static final Jfr JFR = Jfr.load();
+
+    private final EventDefinition stageEventType;
+    private final EventDefinition listenerEventType;
+
+    /** Open spans of each thread. Stages and listeners start and finish on the same thread. */
+    private final ThreadLocal<ArrayDeque<Object>> spans = new ThreadLocal<ArrayDeque<Object>>() {
+        @Override
+        protected ArrayDeque<Object> initialValue()
+        {
+            return new ArrayDeque<Object>();
+        }
+    };
+
+    /**
+     * Returns true if the runtime supports Java Flight Recorder events.
+     */
+    public static boolean isAvailable()
+    {
+        return JFR != null;
+    }
+
+    public LifecycleFlightRecorder()
+    {
+        if (JFR != null) {
+            this.stageEventType = JFR.createEventType(STAGE_EVENT_NAME, "Lifecycle Stage", "stage", "failure");
+            this.listenerEventType = JFR.createEventType(LISTENER_EVENT_NAME, "Lifecycle Listener", "stage", "listener", "failure");
+        }
+        else {
+            this.stageEventType = null;
+            this.listenerEventType = null;
+        }
+    }
+
+    @Override
+    public void onStageStarting(final LifecycleStage lifecycleStage)
+    {
+        begin(stageEventType);
+    }
+
+    @Override
+    public void onStageFinished(final LifecycleStage lifecycleStage, final long wallNanos, final long cpuNanos, @Nullable final Throwable failure)
+    {
+        commit(lifecycleStage.getName(), failure);
+    }
+
+    @Override
+    public void onListenerStarting(final LifecycleStage lifecycleStage, final String listenerName)
+    {
+        begin(listenerEventType);
+    }
+
+    @Override
+    public void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, @Nullable final Throwable failure)
+    {
+        commit(lifecycleStage.getName(), listenerName, failure);
+    }
+
+    private void begin(final EventDefinition eventType)
+    {
+        if (JFR != null) {
+            spans.get().push(JFR.isEnabled(eventType) ? JFR.begin(eventType) : NOT_RECORDED);
+        }
+    }
+
+    private void commit(final Object ... values)
+    {
+        if (JFR != null) {
+            final Object event = spans.get().poll();
+            if (event != null && event != NOT_RECORDED) {
+                JFR.commit(event, values);
+            }
+        }
+    }
+
+    /**
+     * Access to the <code>jdk.jfr</code> API.
+     */
+    private static final class Jfr
+    {
+        private final Method create;
+        private final Constructor<?> annotationElement;
+        private final Constructor<?> valueDescriptor;
+        private final Class<? extends Annotation> nameAnnotation;
+        private final Class<? extends Annotation> labelAnnotation;
+        private final Class<? extends Annotation> categoryAnnotation;
+        private final Method getEventType;
+
+        private final MethodHandle isEnabled;
+        private final MethodHandle newEvent;
+        private final MethodHandle begin;
+        private final MethodHandle end;
+        private final MethodHandle set;
+        private final MethodHandle commit;
+
+        private Jfr() throws ReflectiveOperationException
+        {
+            final Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+            final Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+            final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            final Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+            final Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+
+            this.create = eventFactoryClass.getMethod("create", List.class, List.class);
+            this.annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+            this.valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class);
+            this.nameAnnotation = Class.forName("jdk.jfr.Name").asSubclass(Annotation.class);
+            this.labelAnnotation = Class.forName("jdk.jfr.Label").asSubclass(Annotation.class);
+            this.categoryAnnotation = Class.forName("jdk.jfr.Category").asSubclass(Annotation.class);
+            this.getEventType = eventFactoryClass.getMethod("getEventType");
+
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final MethodType objectToVoid = MethodType.methodType(void.class, Object.class);
+            this.isEnabled = lookup.findVirtual(eventTypeClass, "isEnabled", MethodType.methodType(boolean.class)).asType(MethodType.methodType(boolean.class, Object.class));
+            this.newEvent = lookup.findVirtual(eventFactoryClass, "newEvent", MethodType.methodType(eventClass)).asType(MethodType.methodType(Object.class, Object.class));
+            this.begin = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class)).asType(objectToVoid);
+            this.end = lookup.findVirtual(eventClass, "end", MethodType.methodType(void.class)).asType(objectToVoid);
+            this.set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class)).asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            this.commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class)).asType(objectToVoid);
+        }
+
+        private static Jfr load()
+        {
+            try {
+                return new Jfr();
+            }
+            catch (ReflectiveOperationException e) {
+                return null;
+            }
+            catch (LinkageError e) {
+                return null;
+            }
+        }
+
+        /**
+         * Defines an event with string fields.
+         */
+        private EventDefinition createEventType(final String name, final String label, final String ... fields)
+        {
+            try {
+                final List<Object> annotations = Arrays.<Object>asList(annotationElement.newInstance(nameAnnotation, name),
+                                                                        annotationElement.newInstance(labelAnnotation, label),
+                                                                        annotationElement.newInstance(categoryAnnotation, new String [] { "Lifecycle" }));
+                final Object [] descriptors = new Object [fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    descriptors[i] = valueDescriptor.newInstance(String.class, fields[i]);
+                }
+
+                final Object factory = create.invoke(null, annotations, Arrays.asList(descriptors));
+                return new EventDefinition(factory, getEventType.invoke(factory));
+            }
+            catch (ReflectiveOperationException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private boolean isEnabled(final EventDefinition definition)
+        {
+            try {
+                return (boolean) isEnabled.invokeExact(definition.eventType);
+            }
+            catch (Throwable t) {
+                throw Throwables.propagate(t);
+            }
+        }
+
+        private Object begin(final EventDefinition definition)
+        {
+            try {
+                final Object event = (Object) newEvent.invokeExact(definition.eventFactory);
+                begin.invokeExact(event);
+                return event;
+            }
+            catch (Throwable t) {
+                throw Throwables.propagate(t);
+            }
+        }
+
+        private void commit(final Object event, final Object [] values)
+        {
+            try {
+                end.invokeExact(event);
+                for (int i = 0; i < values.length; i++) {
+                    set.invokeExact(event, i, toString(values[i]));
+                }
+                commit.invokeExact(event);
+            }
+            catch (Throwable t) {
+                LOG.warn(t, "Could not record lifecycle event");
+            }
+        }
+
+        private static Object toString(final Object value)
+        {
+            return value == null ? null : value.toString();
+        }
+    }
+
+    /**
+     * A <code>jdk.jfr.EventFactory</code> and the <code>jdk.jfr.EventType</code> it creates.
+     */
+    private static final class EventDefinition
+    {
+        private final Object eventFactory;
+        private final Object eventType;
+
+        private EventDefinition(final Object eventFactory, final Object eventType)
+        {
+            this.eventFactory = eventFactory;
+            this.eventType = eventType;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Observes the execution of lifecycle stages and their listeners, e.g. to collect timings. Observers are called on the
+ * thread that runs the stage or listener, so they must be thread safe and should return quickly.
+ * <p>
+ * Implementations should extend {@link AbstractLifecycleObserver}, which allows new callbacks to be added to this interface.
+ */
+public interface LifecycleObserver
+{
+    /**
+     * Called before the first listener of a stage is invoked.
+     */
+    void onStageStarting(LifecycleStage lifecycleStage);
+
+    /**
+     * Called after all listeners of a stage have been invoked.
+     *
+     * @param wallNanos Elapsed wall clock time of the stage in nanoseconds.
+     * @param cpuNanos CPU time consumed by all listeners of the stage in nanoseconds, or -1 if CPU time measurement is not available.
+     * @param failure The exception that failed the stage or null if it completed normally.
+     */
+    void onStageFinished(LifecycleStage lifecycleStage, long wallNanos, long cpuNanos, @Nullable Throwable failure);
+
+    /**
+     * Called before {@link #onListenerStarting} for a listener that depends on other listeners of the stage.
+     *
+     * @param dependencies The names of the listeners that must finish before the listener is invoked.
+     */
+    void onListenerDependencies(LifecycleStage lifecycleStage, String listenerName, List<String> dependencies);
+
+    /**
+     * Called before a listener is invoked.
+     *
+     * @param listenerName The name of the listener as given in its {@link LifecycleDependencies} or its string representation.
+     */
+    void onListenerStarting(LifecycleStage lifecycleStage, String listenerName);
+
+    /**
+     * Called after a listener was invoked.
+     *
+     * @param listenerName The name of the listener as given in its {@link LifecycleDependencies} or its string representation.
+     * @param wallNanos Elapsed wall clock time of the listener in nanoseconds.
+     * @param cpuNanos CPU time consumed by the listener in nanoseconds, or -1 if CPU time measurement is not available.
+     * @param failure The exception thrown by the listener or null if it completed normally.
+     */
+    void onListenerFinished(LifecycleStage lifecycleStage, String listenerName, long wallNanos, long cpuNanos, @Nullable Throwable failure);
+
+    /**
+     * Called when the stage stops waiting for a listener because it exceeded its timeout or the stage deadline passed. The
+     * listener may still be running and {@link #onListenerFinished} is called once it returns.
+     *
+     * @param elapsedNanos Time the listener had been running in nanoseconds.
+     */
+    void onListenerTimedOut(LifecycleStage lifecycleStage, String listenerName, long elapsedNanos);
+
+    /**
+     * Called for each listener that is not invoked at all because the stage deadline passed before it could be started.
+     */
+    void onListenerSkipped(LifecycleStage lifecycleStage, String listenerName);
+}
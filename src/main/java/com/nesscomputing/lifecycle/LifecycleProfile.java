@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Closeables;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Remembers how long each listener took in previous runs in a small local file, so that the next run can start the longest
+ * listeners first among those that are ready. With listeners that run concurrently, starting a long listener last makes the whole
+ * stage wait for it after everything else is done.
+ * <pre>
+ *   lifecycle.setExecutor(executor);
+ *   lifecycle.setProfile(new LifecycleProfile(new File("/var/run/service/lifecycle.profile")));
+ * </pre>
+ * A lifecycle writes the file after each stage of its sequence that changed the profile; repeatable stages are only recorded in
+ * memory until then. Listeners are matched by their name (see {@link LifecycleDependencies#named(String)}) or, for unnamed
+ * listeners, by their string representation, so only listeners with a stable name benefit. If several listeners of a stage share
+ * a name, the longest of them is recorded for all. Listeners that are not in the profile are treated as instantaneous.
+ * <p>
+ * The file is a properties file with keys of the form <code>stage/listener</code>, where the stage name is URL encoded so that it
+ * never contains the separator.
+ */
+@ThreadSafe
+public class LifecycleProfile extends AbstractLifecycleObserver
+{
+    private static final Log LOG = Log.findLog();
+
+    private final File file;
+
+    /** Listener durations in milliseconds by stage name and listener name, as of the latest completed run of each stage. */
+    @GuardedBy("this")
+    private final Map<String, Map<String, Long>> durations = new HashMap<String, Map<String, Long>>();
+
+    /** Listener durations of the stages that are currently running. */
+    @GuardedBy("this")
+    private final Map<String, Map<String, Long>> running = new HashMap<String, Map<String, Long>>();
+
+    /** Incremented whenever the durations change. */
+    @GuardedBy("this")
+    private long version = 0L;
+
+    /** The version that was last written to the file successfully. */
+    @GuardedBy("this")
+    private long savedVersion = 0L;
+
+    /** Serializes writing the file, so that an older snapshot never replaces a newer one. */
+    private final Object saveLock = new Object();
+
+    /**
+     * Loads the profile from a file if it exists.
+     */
+    public LifecycleProfile(@Nonnull final File file)
+    {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * Returns the duration of a listener in the latest run of a stage in milliseconds or -1 if the listener is unknown.
+     */
+    public synchronized long getExpectedMillis(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final String listenerName)
+    {
+        final Map<String, Long> stageDurations = durations.get(lifecycleStage.getName());
+        final Long millis = stageDurations == null ? null : stageDurations.get(listenerName);
+        return millis == null ? -1L : millis;
+    }
+
+    @Override
+    public synchronized void onStageStarting(final LifecycleStage lifecycleStage)
+    {
+        running.put(lifecycleStage.getName(), new HashMap<String, Long>());
+    }
+
+    @Override
+    public synchronized void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        final Map<String, Long> stageDurations = running.get(lifecycleStage.getName());
+        if (stageDurations != null && listenerName != null) {
+            final long millis = TimeUnit.NANOSECONDS.toMillis(wallNanos);
+            final Long previous = stageDurations.get(listenerName);
+            if (previous == null || previous < millis) {
+                stageDurations.put(listenerName, millis);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onStageFinished(final LifecycleStage lifecycleStage, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        final Map<String, Long> stageDurations = running.remove(lifecycleStage.getName());
+        // A failed stage did not run all of its listeners, so keep the previous durations.
+        if (stageDurations != null && failure == null && !stageDurations.equals(durations.get(lifecycleStage.getName()))) {
+            durations.put(lifecycleStage.getName(), stageDurations);
+            version++;
+        }
+    }
+
+    /**
+     * Writes the profile to its file if it changed since it was loaded or last saved successfully.
+     */
+    void saveIfChanged()
+    {
+        synchronized (this) {
+            if (version == savedVersion) {
+                return;
+            }
+        }
+        save();
+    }
+
+    /**
+     * Writes the profile to its file. Failures are logged.
+     */
+    public void save()
+    {
+        synchronized (saveLock) {
+            final Properties properties = new Properties();
+            final long snapshotVersion;
+            synchronized (this) {
+                for (final Map.Entry<String, Map<String, Long>> stageEntry : durations.entrySet()) {
+                    final String stageKey = encode(stageEntry.getKey());
+                    for (final Map.Entry<String, Long> listenerEntry : stageEntry.getValue().entrySet()) {
+                        properties.setProperty(stageKey + "/" + listenerEntry.getKey(), listenerEntry.getValue().toString());
+                    }
+                }
+                snapshotVersion = version;
+            }
+
+            // Write to a temporary file in the same directory first, so that a crash never leaves a truncated profile behind.
+            File tmpFile = null;
+            OutputStream out = null;
+            try {
+                tmpFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+                out = new FileOutputStream(tmpFile);
+                properties.store(out, "Lifecycle listener durations in milliseconds");
+                out.close();
+                out = null;
+                move(tmpFile, file);
+                tmpFile = null;
+
+                synchronized (this) {
+                    savedVersion = snapshotVersion;
+                }
+            }
+            catch (IOException ioe) {
+                // The version stays unsaved, so the next stage tries again.
+                LOG.warn(ioe, "Could not write lifecycle profile %s", file);
+            }
+            finally {
+                Closeables.closeQuietly(out);
+                if (tmpFile != null && !tmpFile.delete()) {
+                    LOG.warn("Could not delete temporary lifecycle profile %s", tmpFile);
+                }
+            }
+        }
+    }
+
+    private static void move(final File source, final File target) throws IOException
+    {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException amnse) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private synchronized void load()
+    {
+        final Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        }
+        catch (IOException ioe) {
+            LOG.warn(ioe, "Could not read lifecycle profile %s, ignoring it", file);
+            return;
+        }
+        finally {
+            Closeables.closeQuietly(in);
+        }
+
+        for (final String key : properties.stringPropertyNames()) {
+            final int separator = key.indexOf('/');
+            if (separator < 0) {
+                continue;
+            }
+            try {
+                final long millis = Long.parseLong(properties.getProperty(key));
+                final String stageName = decode(key.substring(0, separator));
+                Map<String, Long> stageDurations = durations.get(stageName);
+                if (stageDurations == null) {
+                    stageDurations = new HashMap<String, Long>();
+                    durations.put(stageName, stageDurations);
+                }
+                stageDurations.put(key.substring(separator + 1), millis);
+            }
+            catch (NumberFormatException nfe) {
+                LOG.warn("Ignoring invalid duration of '%s' in lifecycle profile %s", key, file);
+            }
+            catch (IllegalArgumentException iae) {
+                LOG.warn("Ignoring invalid stage name in '%s' in lifecycle profile %s", key, file);
+            }
+        }
+    }
+
+    private static String encode(final String stageName)
+    {
+        try {
+            return URLEncoder.encode(stageName, Charsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private static String decode(final String stageKey)
+    {
+        try {
+            return URLDecoder.decode(stageKey, Charsets.UTF_8.name());
+        }
+        catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+}
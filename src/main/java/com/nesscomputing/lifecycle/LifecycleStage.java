@@ -16,42 +16,65 @@
 package com.nesscomputing.lifecycle;
 
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 /**
  * Describes a lifecycle stage. This is intentionally not an enumeration to allow construction of arbitrary stages outside the
  * released lifecycle component.
+ * <p>
+ * Every stage name is assigned a dense ordinal when it is first used, so stages compare by ordinal and lifecycles can keep their
+ * per-stage data in arrays. {@link #of(String)} returns a shared instance per name.
  */
 public class LifecycleStage
 {
+    private static final ConcurrentMap<String, Integer> ORDINALS = new ConcurrentHashMap<String, Integer>();
+    private static final ConcurrentMap<String, LifecycleStage> STAGES = new ConcurrentHashMap<String, LifecycleStage>();
 
     /** Well known "configure" stage. */
     public static final String CONFIGURE = "configure";
-    public static final LifecycleStage CONFIGURE_STAGE = new LifecycleStage(CONFIGURE);
+    public static final LifecycleStage CONFIGURE_STAGE = of(CONFIGURE);
 
     /** Well known "announce" stage. */
     public static final String ANNOUNCE = "announce";
-    public static final LifecycleStage ANNOUNCE_STAGE = new LifecycleStage(ANNOUNCE);
+    public static final LifecycleStage ANNOUNCE_STAGE = of(ANNOUNCE);
 
     /** Well known "unannounce" stage. */
     public static final String UNANNOUNCE = "unannounce";
-    public static final LifecycleStage UNANNOUNCE_STAGE = new LifecycleStage(UNANNOUNCE);
+    public static final LifecycleStage UNANNOUNCE_STAGE = of(UNANNOUNCE);
 
     /** Well known "start" stage. */
     public static final String START = "start";
-    public static final LifecycleStage START_STAGE = new LifecycleStage(START);
+    public static final LifecycleStage START_STAGE = of(START);
 
     /** Well known "stop" stage. */
     public static final String STOP = "stop";
-    public static final LifecycleStage STOP_STAGE = new LifecycleStage(STOP);
+    public static final LifecycleStage STOP_STAGE = of(STOP);
 
     private final String name;
 
+    private final int ordinal;
+
+    /**
+     * Returns the shared stage for a name.
+     * @param name Name of the stage. Must not be null.
+     */
+    public static LifecycleStage of(@Nonnull final String name)
+    {
+        final String stageName = name.toLowerCase(Locale.ENGLISH);
+        final LifecycleStage stage = STAGES.get(stageName);
+        if (stage != null) {
+            return stage;
+        }
+        final LifecycleStage newStage = new LifecycleStage(stageName);
+        final LifecycleStage existingStage = STAGES.putIfAbsent(stageName, newStage);
+        return existingStage == null ? newStage : existingStage;
+    }
+
     /**
      * Creates a new LifecycleStage.
      * @param name Name of the stage. Must not be null.
@@ -59,6 +82,25 @@ public class LifecycleStage
     public LifecycleStage(@Nonnull final String name)
     {
         this.name = name.toLowerCase(Locale.ENGLISH);
+        this.ordinal = ordinalOf(this.name);
+    }
+
+    private static int ordinalOf(final String name)
+    {
+        final Integer ordinal = ORDINALS.get(name);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (ORDINALS) {
+            // Keep the ordinals dense, every name must draw exactly one.
+            final Integer existingOrdinal = ORDINALS.get(name);
+            if (existingOrdinal != null) {
+                return existingOrdinal;
+            }
+            final int newOrdinal = ORDINALS.size();
+            ORDINALS.put(name, newOrdinal);
+            return newOrdinal;
+        }
     }
 
     public String getName()
@@ -66,31 +108,30 @@ public class LifecycleStage
         return name;
     }
 
-    //
-    // Autogenerated by commons4e
-    //
+    /**
+     * Returns the ordinal of this stage. Ordinals are dense, start at 0 and are only valid within the running VM.
+     */
+    int getOrdinal()
+    {
+        return ordinal;
+    }
 
     @Override
-    public boolean equals(final Object other){
+    public boolean equals(final Object other)
+    {
+        if (this == other) {
+            return true;
+        }
         if (!(other instanceof LifecycleStage)) {
             return false;
         }
-        final LifecycleStage castOther = (LifecycleStage) other;
-        return new EqualsBuilder()
-            .append(name, castOther.name)
-            .isEquals();
+        return ordinal == ((LifecycleStage) other).ordinal;
     }
 
-    private transient int hashCode;
-
     @Override
-    public int hashCode() {
-        if (hashCode == 0) {
-            hashCode = new HashCodeBuilder()
-                .append(name)
-                .toHashCode();
-        }
-        return hashCode;
+    public int hashCode()
+    {
+        return ordinal;
     }
 
     private transient String toString;
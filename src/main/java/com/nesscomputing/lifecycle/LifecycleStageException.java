@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Thrown when one or more listeners of a lifecycle stage failed. The first failure is reported
+ * as the cause, all other failures are attached as suppressed exceptions.
+ */
+public class LifecycleStageException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final LifecycleStage lifecycleStage;
+
+    private final List<Throwable> failures;
+
+    public LifecycleStageException(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final List<? extends Throwable> failures)
+    {
+        super(String.format("Stage '%s' failed, %d listener(s) threw an exception", lifecycleStage.getName(), failures.size()),
+              failures.isEmpty() ? null : failures.get(0));
+
+        this.lifecycleStage = lifecycleStage;
+        this.failures = ImmutableList.<Throwable>copyOf(failures);
+
+        for (int i = 1; i < this.failures.size(); i++) {
+            addSuppressed(this.failures.get(i));
+        }
+    }
+
+    /**
+     * Returns the stage that failed.
+     */
+    public LifecycleStage getLifecycleStage()
+    {
+        return lifecycleStage;
+    }
+
+    /**
+     * Returns all exceptions thrown by listeners of the failed stage.
+     */
+    public List<Throwable> getFailures()
+    {
+        return failures;
+    }
+}
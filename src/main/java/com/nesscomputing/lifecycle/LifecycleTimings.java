@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Keeps wall clock and CPU timings of the most recent execution of each stage and its listeners in memory.
+ * <pre>
+ *   LifecycleTimings timings = new LifecycleTimings();
+ *   lifecycle.addObserver(timings);
+ *   lifecycle.executeTo(LifecycleStage.START_STAGE);
+ *   List&lt;ListenerTiming&gt; slowest = timings.getStageTiming(LifecycleStage.START_STAGE).getSlowestListeners(10);
+ * </pre>
+ */
+@ThreadSafe
+public class LifecycleTimings extends AbstractLifecycleObserver
+{
+    @GuardedBy("this")
+    private final Map<LifecycleStage, StageTiming> stageTimings = new LinkedHashMap<LifecycleStage, StageTiming>();
+
+    @Override
+    public synchronized void onStageStarting(final LifecycleStage lifecycleStage)
+    {
+        // Keep the map in execution order.
+        stageTimings.remove(lifecycleStage);
+        stageTimings.put(lifecycleStage, new StageTiming(lifecycleStage));
+    }
+
+    @Override
+    public synchronized void onStageFinished(final LifecycleStage lifecycleStage, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        final StageTiming stageTiming = stageTimings.get(lifecycleStage);
+        if (stageTiming != null) {
+            stageTiming.finish(wallNanos, cpuNanos, failure != null);
+        }
+    }
+
+    @Override
+    public synchronized void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, final Throwable failure)
+    {
+        final StageTiming stageTiming = stageTimings.get(lifecycleStage);
+        if (stageTiming != null) {
+            stageTiming.add(new ListenerTiming(listenerName, wallNanos, cpuNanos, failure != null));
+        }
+    }
+
+    @Override
+    public synchronized void onListenerTimedOut(final LifecycleStage lifecycleStage, final String listenerName, final long elapsedNanos)
+    {
+        final StageTiming stageTiming = stageTimings.get(lifecycleStage);
+        if (stageTiming != null) {
+            stageTiming.timedOutListeners.add(listenerName);
+        }
+    }
+
+    @Override
+    public synchronized void onListenerSkipped(final LifecycleStage lifecycleStage, final String listenerName)
+    {
+        final StageTiming stageTiming = stageTimings.get(lifecycleStage);
+        if (stageTiming != null) {
+            stageTiming.skippedListeners.add(listenerName);
+        }
+    }
+
+    /**
+     * Returns the timings of all stages in the order in which they were executed last.
+     */
+    public synchronized List<StageTiming> getStageTimings()
+    {
+        final ImmutableList.Builder<StageTiming> builder = ImmutableList.builder();
+        for (final StageTiming stageTiming : stageTimings.values()) {
+            builder.add(stageTiming.copy());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the timings of the most recent execution of a stage or null if the stage was never executed.
+     */
+    @CheckForNull
+    public synchronized StageTiming getStageTiming(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        final StageTiming stageTiming = stageTimings.get(lifecycleStage);
+        return stageTiming == null ? null : stageTiming.copy();
+    }
+
+    /**
+     * Returns a human readable report of all stages and their slowest listeners.
+     *
+     * @param listenersPerStage Number of listeners to report for each stage.
+     */
+    public String getReport(final int listenersPerStage)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (final StageTiming stageTiming : getStageTimings()) {
+            sb.append(String.format("Stage '%s': %d ms wall, %s cpu%s%n",
+                                    stageTiming.getLifecycleStage().getName(),
+                                    TimeUnit.NANOSECONDS.toMillis(stageTiming.getWallNanos()),
+                                    formatCpu(stageTiming.getCpuNanos()),
+                                    stageTiming.isFailed() ? " (failed)" : ""));
+            for (final ListenerTiming listenerTiming : stageTiming.getSlowestListeners(listenersPerStage)) {
+                sb.append(String.format("    %8d ms wall, %s cpu: %s%s%n",
+                                        TimeUnit.NANOSECONDS.toMillis(listenerTiming.getWallNanos()),
+                                        formatCpu(listenerTiming.getCpuNanos()),
+                                        listenerTiming.getListenerName(),
+                                        listenerTiming.isFailed() ? " (failed)" : ""));
+            }
+            for (final String listenerName : stageTiming.getTimedOutListeners()) {
+                sb.append(String.format("    timed out: %s%n", listenerName));
+            }
+            for (final String listenerName : stageTiming.getSkippedListeners()) {
+                sb.append(String.format("    skipped: %s%n", listenerName));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String formatCpu(final long cpuNanos)
+    {
+        return cpuNanos < 0 ? "n/a" : TimeUnit.NANOSECONDS.toMillis(cpuNanos) + " ms";
+    }
+
+    /**
+     * Timing of a single stage execution.
+     */
+    public static class StageTiming
+    {
+        private final LifecycleStage lifecycleStage;
+        private final List<ListenerTiming> listenerTimings;
+        private final List<String> timedOutListeners;
+        private final List<String> skippedListeners;
+        private long wallNanos = -1;
+        private long cpuNanos = -1;
+        private boolean failed = false;
+
+        StageTiming(@Nonnull final LifecycleStage lifecycleStage)
+        {
+            this(lifecycleStage, new ArrayList<ListenerTiming>(), new ArrayList<String>(), new ArrayList<String>());
+        }
+
+        private StageTiming(@Nonnull final LifecycleStage lifecycleStage,
+                            @Nonnull final List<ListenerTiming> listenerTimings,
+                            @Nonnull final List<String> timedOutListeners,
+                            @Nonnull final List<String> skippedListeners)
+        {
+            this.lifecycleStage = lifecycleStage;
+            this.listenerTimings = listenerTimings;
+            this.timedOutListeners = timedOutListeners;
+            this.skippedListeners = skippedListeners;
+        }
+
+        void add(final ListenerTiming listenerTiming)
+        {
+            listenerTimings.add(listenerTiming);
+        }
+
+        void finish(final long wallNanos, final long cpuNanos, final boolean failed)
+        {
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.failed = failed;
+        }
+
+        StageTiming copy()
+        {
+            final StageTiming copy = new StageTiming(lifecycleStage, ImmutableList.copyOf(listenerTimings), ImmutableList.copyOf(timedOutListeners), ImmutableList.copyOf(skippedListeners));
+            copy.finish(wallNanos, cpuNanos, failed);
+            return copy;
+        }
+
+        public LifecycleStage getLifecycleStage()
+        {
+            return lifecycleStage;
+        }
+
+        /**
+         * Returns the wall clock time of the stage in nanoseconds or -1 if the stage is still running.
+         */
+        public long getWallNanos()
+        {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the CPU time of all listeners of the stage in nanoseconds or -1 if not available.
+         */
+        public long getCpuNanos()
+        {
+            return cpuNanos;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
+        }
+
+        /**
+         * Returns the timings of all listeners in the order in which they finished.
+         */
+        public List<ListenerTiming> getListenerTimings()
+        {
+            return listenerTimings;
+        }
+
+        /**
+         * Returns the names of the listeners the stage stopped waiting for because they exceeded their timeout or the stage deadline.
+         */
+        public List<String> getTimedOutListeners()
+        {
+            return timedOutListeners;
+        }
+
+        /**
+         * Returns the names of the listeners that were not invoked because the stage deadline passed.
+         */
+        public List<String> getSkippedListeners()
+        {
+            return skippedListeners;
+        }
+
+        /**
+         * Returns the timings of the listeners with the longest wall clock time, slowest first.
+         */
+        public List<ListenerTiming> getSlowestListeners(final int count)
+        {
+            final List<ListenerTiming> sorted = new ArrayList<ListenerTiming>(listenerTimings);
+            Collections.sort(sorted, ListenerTiming.SLOWEST_FIRST);
+            return ImmutableList.copyOf(sorted.subList(0, Math.min(count, sorted.size())));
+        }
+    }
+
+    /**
+     * Timing of a single listener invocation.
+     */
+    public static class ListenerTiming
+    {
+        static final Comparator<ListenerTiming> SLOWEST_FIRST = new Comparator<ListenerTiming>() {
+            @Override
+            public int compare(final ListenerTiming first, final ListenerTiming second)
+            {
+                return Long.compare(second.wallNanos, first.wallNanos);
+            }
+        };
+
+        private final String listenerName;
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final boolean failed;
+
+        ListenerTiming(@Nullable final String listenerName, final long wallNanos, final long cpuNanos, final boolean failed)
+        {
+            this.listenerName = listenerName;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.failed = failed;
+        }
+
+        public String getListenerName()
+        {
+            return listenerName;
+        }
+
+        public long getWallNanos()
+        {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the CPU time of the listener in nanoseconds or -1 if not available.
+         */
+        public long getCpuNanos()
+        {
+            return cpuNanos;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A listener registered with a lifecycle stage together with its declared dependencies.
+ */
+final class ListenerEntry
+{
+    private final LifecycleListener listener;
+    private final LifecycleDependencies dependencies;
+
+    /** Set once the listener was removed from its stage. */
+    private volatile boolean removed = false;
+
+    ListenerEntry(@Nonnull final LifecycleListener listener, @Nonnull final LifecycleDependencies dependencies)
+    {
+        this.listener = listener;
+        this.dependencies = dependencies;
+    }
+
+    LifecycleListener getListener()
+    {
+        return listener;
+    }
+
+    LifecycleDependencies getDependencies()
+    {
+        return dependencies;
+    }
+
+    boolean isRemoved()
+    {
+        return removed;
+    }
+
+    void markRemoved()
+    {
+        this.removed = true;
+    }
+
+    /**
+     * Returns a name for this listener suitable for logging.
+     */
+    String getDisplayName()
+    {
+        final String name = dependencies.getName();
+        return name != null ? name : listener.toString();
+    }
+}
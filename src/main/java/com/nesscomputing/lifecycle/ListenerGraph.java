@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.primitives.Ints;
+
+/**
+ * The listeners of a stage arranged as a dependency graph. Nodes are numbered in registration order (reversed for the STOP stage),
+ * which is used to break ties between listeners that have no dependencies on each other.
+ */
+final class ListenerGraph
+{
+    private static final int [] NO_DEPENDENTS = new int [0];
+
+    /** The listeners as registered, before reversing. */
+    private final ImmutableList<ListenerEntry> registered;
+
+    private final List<ListenerEntry> entries;
+
+    /** For each node, the nodes that must wait for it to finish. */
+    private final int [][] dependents;
+
+    /** For each node, the number of nodes that must finish before it can run. */
+    private final int [] dependencyCounts;
+
+    /** All nodes in a valid sequential execution order. */
+    private final List<ListenerEntry> executionOrder;
+
+    /** The listeners of all nodes in execution order. */
+    private final LifecycleListener [] listeners;
+
+    /** For each listener with dependencies, the names of the listeners it must wait for. */
+    private final Map<ListenerEntry, List<String>> dependencyNames;
+
+    /** True if any listener completes asynchronously. */
+    private final boolean hasAsyncListeners;
+
+    /**
+     * Builds the dependency graph for a stage.
+     *
+     * @param lifecycleStage The stage that is executed.
+     * @param registered The listeners of the stage in registration order.
+     * @param reverse If true, registration order and all dependencies are reversed.
+     *
+     * @throws IllegalStateException If the dependencies contain a cycle.
+     */
+    static ListenerGraph build(@Nonnull final LifecycleStage lifecycleStage, @Nonnull final ImmutableList<ListenerEntry> registered, final boolean reverse)
+    {
+        return new ListenerGraph(lifecycleStage, registered, reverse);
+    }
+
+    private ListenerGraph(final LifecycleStage lifecycleStage, final ImmutableList<ListenerEntry> registered, final boolean reverse)
+    {
+        this.registered = registered;
+        this.entries = reverse ? registered.reverse() : registered;
+
+        final int size = entries.size();
+        boolean hasDependencies = false;
+        boolean hasAsync = false;
+
+        for (int i = 0; i < size; i++) {
+            final ListenerEntry entry = entries.get(i);
+            hasDependencies |= entry.getDependencies().hasDependencies();
+            hasAsync |= entry.getListener() instanceof AsyncListenerAdapter;
+        }
+        this.hasAsyncListeners = hasAsync;
+
+        this.dependencyCounts = new int [size];
+        this.dependents = new int [size][];
+
+        if (!hasDependencies) {
+            // Fast path, plain registration order.
+            Arrays.fill(dependents, NO_DEPENDENTS);
+            this.executionOrder = entries;
+            this.listeners = toListeners(entries);
+            this.dependencyNames = Collections.emptyMap();
+            return;
+        }
+
+        final ListMultimap<String, Integer> nodesByName = ArrayListMultimap.create();
+        for (int i = 0; i < size; i++) {
+            final LifecycleDependencies dependencies = entries.get(i).getDependencies();
+            if (dependencies.getName() != null) {
+                nodesByName.put(dependencies.getName(), i);
+            }
+        }
+
+        final List<Set<Integer>> successors = new ArrayList<Set<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            successors.add(new LinkedHashSet<Integer>());
+        }
+
+        for (int i = 0; i < size; i++) {
+            final LifecycleDependencies dependencies = entries.get(i).getDependencies();
+            for (final String name : dependencies.getAfter()) {
+                for (final Integer j : nodesByName.get(name)) {
+                    addEdge(successors, j, i, reverse);
+                }
+            }
+            for (final String name : dependencies.getBefore()) {
+                for (final Integer j : nodesByName.get(name)) {
+                    addEdge(successors, i, j, reverse);
+                }
+            }
+            if (dependencies.isBeforeAll()) {
+                for (int j = 0; j < size; j++) {
+                    if (!entries.get(j).getDependencies().isBeforeAll()) {
+                        addEdge(successors, i, j, reverse);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            dependents[i] = Ints.toArray(successors.get(i));
+            for (final int j : dependents[i]) {
+                dependencyCounts[j]++;
+            }
+        }
+
+        this.executionOrder = sort(lifecycleStage);
+        this.listeners = toListeners(executionOrder);
+
+        this.dependencyNames = new IdentityHashMap<ListenerEntry, List<String>>();
+        for (int i = 0; i < size; i++) {
+            for (final int j : dependents[i]) {
+                List<String> names = dependencyNames.get(entries.get(j));
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    dependencyNames.put(entries.get(j), names);
+                }
+                names.add(entries.get(i).getDisplayName());
+            }
+        }
+    }
+
+    private static LifecycleListener [] toListeners(final List<ListenerEntry> entries)
+    {
+        final LifecycleListener [] result = new LifecycleListener [entries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = entries.get(i).getListener();
+        }
+        return result;
+    }
+
+    private static void addEdge(final List<Set<Integer>> successors, final int from, final int to, final boolean reverse)
+    {
+        if (from != to) {
+            if (reverse) {
+                successors.get(to).add(from);
+            }
+            else {
+                successors.get(from).add(to);
+            }
+        }
+    }
+
+    /**
+     * Topological sort that prefers the lowest node number among all runnable nodes.
+     */
+    private List<ListenerEntry> sort(final LifecycleStage lifecycleStage)
+    {
+        final int size = entries.size();
+        final int [] remaining = dependencyCounts.clone();
+        final PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+        final List<ListenerEntry> result = new ArrayList<ListenerEntry>(size);
+
+        for (int i = 0; i < size; i++) {
+            if (remaining[i] == 0) {
+                ready.add(i);
+            }
+        }
+
+        while (!ready.isEmpty()) {
+            final int node = ready.poll();
+            result.add(entries.get(node));
+            for (final int dependent : dependents[node]) {
+                if (--remaining[dependent] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (result.size() != size) {
+            final List<String> cyclic = new ArrayList<String>();
+            for (int i = 0; i < size; i++) {
+                if (remaining[i] > 0) {
+                    cyclic.add(entries.get(i).getDisplayName());
+                }
+            }
+            throw new IllegalStateException(String.format("Listeners of stage '%s' have cyclic dependencies: %s", lifecycleStage.getName(), cyclic));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the list the graph was built from.
+     */
+    ImmutableList<ListenerEntry> getRegistered()
+    {
+        return registered;
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    ListenerEntry getEntry(final int node)
+    {
+        return entries.get(node);
+    }
+
+    int [] getDependents(final int node)
+    {
+        return dependents[node];
+    }
+
+    /**
+     * Returns a fresh copy of the dependency counts for all nodes, which can be counted down while executing.
+     */
+    int [] getDependencyCounts()
+    {
+        return dependencyCounts.clone();
+    }
+
+    /**
+     * Returns all listeners in an order that satisfies all dependencies.
+     */
+    List<ListenerEntry> getExecutionOrder()
+    {
+        return executionOrder;
+    }
+
+    /**
+     * Returns the names of the listeners that must finish before a listener can run. Must not be modified.
+     */
+    List<String> getDependencyNames(final ListenerEntry entry)
+    {
+        final List<String> names = dependencyNames.get(entry);
+        return names == null ? Collections.<String>emptyList() : names;
+    }
+
+    /**
+     * Returns the listeners of all nodes in execution order. Must not be modified.
+     */
+    LifecycleListener [] getListeners()
+    {
+        return listeners;
+    }
+
+    /**
+     * Returns true if any listener completes asynchronously and may overlap with the listeners started after it.
+     */
+    boolean hasAsyncListeners()
+    {
+        return hasAsyncListeners;
+    }
+}
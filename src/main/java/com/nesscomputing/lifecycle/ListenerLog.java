@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The listeners of a stage in registration order.
+ * <p>
+ * Listeners are registered many at a time and read once per stage execution, so new listeners are appended to fixed size chunks
+ * and never copied when registering. {@link #freeze()} merges the chunks into an immutable list, which is kept until further
+ * listeners are added.
+ * <p>
+ * Removed listeners are only marked as removed and dropped when the list is merged the next time. If more than half of the stored
+ * entries were removed, the list is merged right away, so the memory used is bounded by the number of live listeners.
+ */
+@ThreadSafe
+final class ListenerLog
+{
+    private static final int FIRST_CHUNK_SIZE = 16;
+    private static final int MAX_CHUNK_SIZE = 4096;
+
+    /** All listeners added before the last call to {@link #freeze()}. */
+    @GuardedBy("this")
+    private ImmutableList<ListenerEntry> frozen = ImmutableList.of();
+
+    /** Listeners added since the last call to {@link #freeze()}. Only the last chunk may have free space. */
+    @GuardedBy("this")
+    private final List<ListenerEntry []> chunks = new ArrayList<ListenerEntry []>();
+
+    @GuardedBy("this")
+    private int chunkSize = FIRST_CHUNK_SIZE;
+
+    /** Number of entries in the last chunk. */
+    @GuardedBy("this")
+    private int lastChunkFill = 0;
+
+    /** Number of entries in all chunks. */
+    @GuardedBy("this")
+    private int appended = 0;
+
+    /** Number of entries that were removed but are still stored. */
+    @GuardedBy("this")
+    private int removed = 0;
+
+    /** Dependency graph of {@link #frozen}, built on first use. */
+    @GuardedBy("this")
+    private ListenerGraph graph = null;
+
+    synchronized void add(@Nonnull final ListenerEntry entry)
+    {
+        ListenerEntry [] chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || lastChunkFill == chunk.length) {
+            chunk = new ListenerEntry [chunkSize];
+            chunks.add(chunk);
+            lastChunkFill = 0;
+            chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+        }
+        chunk[lastChunkFill++] = entry;
+        appended++;
+    }
+
+    /**
+     * Removes an entry previously added to this log.
+     */
+    synchronized void remove(@Nonnull final ListenerEntry entry)
+    {
+        if (entry.isRemoved()) {
+            return;
+        }
+        entry.markRemoved();
+        removed++;
+
+        if (removed > FIRST_CHUNK_SIZE && removed * 2 > frozen.size() + appended) {
+            merge();
+        }
+    }
+
+    /**
+     * Returns all listeners in registration order.
+     */
+    synchronized ImmutableList<ListenerEntry> freeze()
+    {
+        if (appended > 0 || removed > 0) {
+            merge();
+        }
+        return frozen;
+    }
+
+    /**
+     * Returns the dependency graph of all listeners. The graph is kept until listeners are added or removed.
+     *
+     * @throws IllegalStateException If the dependencies contain a cycle.
+     */
+    synchronized ListenerGraph getGraph(@Nonnull final LifecycleStage lifecycleStage, final boolean reverse)
+    {
+        final ImmutableList<ListenerEntry> entries = freeze();
+        if (graph == null || graph.getRegistered() != entries) {
+            graph = ListenerGraph.build(lifecycleStage, entries, reverse);
+        }
+        return graph;
+    }
+
+    synchronized int size()
+    {
+        return frozen.size() + appended - removed;
+    }
+
+    @GuardedBy("this")
+    private void merge()
+    {
+        final ListenerEntry [] merged = new ListenerEntry [frozen.size() + appended - removed];
+        int position = 0;
+
+        for (final ListenerEntry entry : frozen) {
+            if (!entry.isRemoved()) {
+                merged[position++] = entry;
+            }
+        }
+
+        for (int i = 0; i < chunks.size(); i++) {
+            final ListenerEntry [] chunk = chunks.get(i);
+            final int length = (i == chunks.size() - 1) ? lastChunkFill : chunk.length;
+            for (int j = 0; j < length; j++) {
+                if (!chunk[j].isRemoved()) {
+                    merged[position++] = chunk[j];
+                }
+            }
+        }
+
+        frozen = ImmutableList.copyOf(merged);
+        chunks.clear();
+        chunkSize = FIRST_CHUNK_SIZE;
+        lastChunkFill = 0;
+        appended = 0;
+        removed = 0;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A stage that is not part of the sequence of a {@link LifecycleDriver} and can be executed any number of times with
+ * {@link Lifecycle#execute(LifecycleStage)}, e.g. for periodic operations such as reloading configuration or rotating credentials.
+ * The stage may be restricted to the part of the sequence between two of its stages:
+ * <pre>
+ *   RepeatableStage.of(new LifecycleStage("reload")).after(LifecycleStage.START_STAGE).before(LifecycleStage.STOP_STAGE);
+ * </pre>
+ * The repeatable stage may then be executed once the "after" stage has been started and until the "before" stage is started.
+ * Repeated executions reuse the listener graph of the stage as long as no listeners are added or removed and do not log at info level.
+ */
+public final class RepeatableStage
+{
+    private final LifecycleStage lifecycleStage;
+    private final LifecycleStage after;
+    private final LifecycleStage before;
+
+    /**
+     * Returns a repeatable stage that may be executed at any time.
+     */
+    public static RepeatableStage of(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        return new RepeatableStage(lifecycleStage, null, null);
+    }
+
+    private RepeatableStage(@Nonnull final LifecycleStage lifecycleStage, @Nullable final LifecycleStage after, @Nullable final LifecycleStage before)
+    {
+        this.lifecycleStage = Preconditions.checkNotNull(lifecycleStage, "lifecycleStage");
+        this.after = after;
+        this.before = before;
+    }
+
+    /**
+     * Returns a copy of this stage that may only be executed once the given stage of the sequence has been started.
+     */
+    public RepeatableStage after(@Nonnull final LifecycleStage stage)
+    {
+        return new RepeatableStage(lifecycleStage, Preconditions.checkNotNull(stage, "stage"), before);
+    }
+
+    /**
+     * Returns a copy of this stage that may no longer be executed once the given stage of the sequence has been started.
+     */
+    public RepeatableStage before(@Nonnull final LifecycleStage stage)
+    {
+        return new RepeatableStage(lifecycleStage, after, Preconditions.checkNotNull(stage, "stage"));
+    }
+
+    public LifecycleStage getLifecycleStage()
+    {
+        return lifecycleStage;
+    }
+
+    /**
+     * Returns the stage of the sequence that must have been started before this stage may be executed or null.
+     */
+    @CheckForNull
+    public LifecycleStage getAfter()
+    {
+        return after;
+    }
+
+    /**
+     * Returns the stage of the sequence after whose start this stage may no longer be executed or null.
+     */
+    @CheckForNull
+    public LifecycleStage getBefore()
+    {
+        return before;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this).append("lifecycleStage", lifecycleStage).append("after", after).append("before", before).toString();
+    }
+}
@@ -0,0 +1,724 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Runs the listeners of a stage and reports their execution to the observers.
+ * <p>
+ * Without an executor and without timeouts, the listeners are invoked one after another on the calling thread and the first failure
+ * is rethrown as is. Otherwise the listeners are scheduled: A listener is started as soon as all listeners it depends on have finished
+ * (one listener at a time if no executor was given), while the calling thread watches for listener timeouts and the stage deadline.
+ * Once a listener fails, no further listeners are started; the execution completes when all running listeners have finished and
+ * all failures are reported as a {@link LifecycleStageException}.
+ * <p>
+ * Asynchronous listeners are always scheduled. Such a listener only occupies a thread while it is being called; it finishes from the
+ * callback of its future, so the listeners after it can be started (also one at a time) while its work is still in progress.
+ * <p>
+ * With {@link FailurePolicy#BEST_EFFORT}, failures do not stop the stage: all listeners are invoked, dependents of a failed listener
+ * are released as if it had succeeded, and all failures are reported as a {@link LifecycleStageException} at the end.
+ */
+final class StageExecution
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private enum State
+    {
+        PENDING, RUNNING, DONE, FAILED, ABANDONED, SKIPPED;
+    }
+
+    private final LifecycleStage lifecycleStage;
+    private final ListenerGraph graph;
+    private final Executor executor;
+    private final Executor timeoutExecutor;
+    private final StageSettings settings;
+    private final FailurePolicy failurePolicy;
+    private final List<LifecycleObserver> observers;
+    private final LifecycleProfile profile;
+    private final LifecycleDriver.StageRun run;
+
+    /** Sum of the CPU time of all listeners, -1 if not available. */
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    // Scheduling state, only allocated if the listeners are scheduled.
+
+    @GuardedBy("this")
+    private int [] waitingFor;
+
+    @GuardedBy("this")
+    private State [] states;
+
+    @GuardedBy("this")
+    private long [] startNanos;
+
+    @GuardedBy("this")
+    private Thread [] threads;
+
+    @GuardedBy("this")
+    private boolean [] interrupted;
+
+    /** For each node, whether the listener is running and its call has not returned yet. */
+    @GuardedBy("this")
+    private boolean [] calling;
+
+    @GuardedBy("this")
+    private PriorityQueue<Integer> ready;
+
+    @GuardedBy("this")
+    private List<Throwable> failures;
+
+    /** Number of listeners that are running. */
+    @GuardedBy("this")
+    private int running = 0;
+
+    /** Number of running listeners whose call has not returned yet, i.e. that occupy a thread. */
+    @GuardedBy("this")
+    private int called = 0;
+
+    /** Number of listeners that are pending or running. */
+    @GuardedBy("this")
+    private int unsettled;
+
+    /** Set once no further listeners must be started. */
+    @GuardedBy("this")
+    private boolean aborted = false;
+
+    /**
+     * @param executor Executor to run the listeners concurrently or null to run them one at a time.
+     * @param timeoutExecutor Executor to run the listeners on when they are run one at a time but must be watched for timeouts or
+     *                        may overlap with asynchronous listeners.
+     * @param profile Durations of the listeners in previous runs to start the longest ready listeners first, or null to start them in order.
+     * @param run The run of the sequence this stage belongs to, so that its listeners can not move the sequence on, or null.
+     */
+    StageExecution(@Nonnull final LifecycleStage lifecycleStage,
+                   @Nonnull final ListenerGraph graph,
+                   @Nullable final Executor executor,
+                   @Nullable final Executor timeoutExecutor,
+                   @Nonnull final StageSettings settings,
+                   @Nonnull final List<LifecycleObserver> observers,
+                   @Nullable final LifecycleProfile profile,
+                   @Nullable final LifecycleDriver.StageRun run)
+    {
+        this.lifecycleStage = lifecycleStage;
+        this.graph = graph;
+        this.executor = executor;
+        this.timeoutExecutor = timeoutExecutor;
+        this.settings = settings;
+        this.failurePolicy = settings.getFailurePolicy();
+        this.observers = observers;
+        this.profile = profile;
+        this.run = run;
+    }
+
+    /**
+     * Runs all listeners and waits for them to finish.
+     *
+     * @throws LifecycleStageException If any listener failed while being scheduled.
+     */
+    void run()
+    {
+        final boolean observed = !observers.isEmpty();
+        final long stageStartNanos = observed ? System.nanoTime() : 0L;
+
+        if (observed) {
+            for (final LifecycleObserver observer : observers) {
+                try {
+                    observer.onStageStarting(lifecycleStage);
+                }
+                catch (RuntimeException e) {
+                    LOG.warn(e, "Observer %s failed", observer);
+                }
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            if (executor == null && !settings.isTimed() && !graph.hasAsyncListeners()) {
+                runSequentially();
+            }
+            else {
+                runScheduled();
+            }
+        }
+        catch (Throwable t) {
+            failure = t;
+            throw Throwables.propagate(t);
+        }
+        finally {
+            if (observed) {
+                final long wallNanos = System.nanoTime() - stageStartNanos;
+                for (final LifecycleObserver observer : observers) {
+                    try {
+                        observer.onStageFinished(lifecycleStage, wallNanos, cpuNanos.get(), failure);
+                    }
+                    catch (RuntimeException e) {
+                        LOG.warn(e, "Observer %s failed", observer);
+                    }
+                }
+            }
+        }
+    }
+
+    private void runSequentially()
+    {
+        if (failurePolicy == FailurePolicy.BEST_EFFORT) {
+            runAllSequentially();
+        }
+        else if (observers.isEmpty()) {
+            for (final LifecycleListener listener : graph.getListeners()) {
+                listener.onStage(lifecycleStage);
+            }
+        }
+        else {
+            for (final ListenerEntry entry : graph.getExecutionOrder()) {
+                invoke(entry);
+            }
+        }
+    }
+
+    /**
+     * Invokes all listeners one after another, even if some of them fail.
+     */
+    private void runAllSequentially()
+    {
+        final List<Throwable> failed = new ArrayList<Throwable>();
+        for (final ListenerEntry entry : graph.getExecutionOrder()) {
+            try {
+                invoke(entry);
+            }
+            catch (Throwable t) {
+                LOG.warn(t, "Listener '%s' of stage '%s' failed, continuing", entry.getDisplayName(), lifecycleStage.getName());
+                failed.add(t);
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            throw new LifecycleStageException(lifecycleStage, failed);
+        }
+    }
+
+    private synchronized void runScheduled()
+    {
+        final boolean serial = executor == null;
+        final Executor pool = serial ? timeoutExecutor : executor;
+        final long listenerTimeoutNanos = settings.getListenerTimeoutNanos();
+        final long stageDeadlineNanos = settings.getStageDeadlineNanos();
+        final TimeoutPolicy timeoutPolicy = settings.getTimeoutPolicy();
+        final long stageStartNanos = System.nanoTime();
+
+        final int size = graph.size();
+        waitingFor = graph.getDependencyCounts();
+        states = new State [size];
+        startNanos = new long [size];
+        threads = new Thread [size];
+        interrupted = new boolean [size];
+        calling = new boolean [size];
+        ready = (serial || profile == null) ? new PriorityQueue<Integer>() : new PriorityQueue<Integer>(Math.max(size, 1), longestFirst(size));
+        failures = new ArrayList<Throwable>();
+        unsettled = size;
+        Arrays.fill(states, State.PENDING);
+
+        for (int node = 0; node < size; node++) {
+            if (waitingFor[node] == 0) {
+                ready.add(node);
+            }
+        }
+
+        try {
+            while (true) {
+                while (!aborted && !ready.isEmpty() && (!serial || called == 0)) {
+                    start(ready.poll(), pool);
+                }
+
+                if (aborted ? running == 0 : unsettled == 0) {
+                    break;
+                }
+
+                final long now = System.nanoTime();
+                long waitNanos = Long.MAX_VALUE;
+
+                if (stageDeadlineNanos > 0L) {
+                    final long remaining = stageStartNanos + stageDeadlineNanos - now;
+                    if (remaining <= 0L) {
+                        deadlineExpired(now - stageStartNanos, timeoutPolicy);
+                        continue;
+                    }
+                    waitNanos = remaining;
+                }
+
+                if (listenerTimeoutNanos > 0L) {
+                    boolean timedOut = false;
+                    for (int node = 0; node < graph.size(); node++) {
+                        if (states[node] == State.RUNNING) {
+                            final long remaining = startNanos[node] + listenerTimeoutNanos - now;
+                            if (remaining <= 0L) {
+                                timedOut(node, now, timeoutPolicy);
+                                timedOut = true;
+                            }
+                            else {
+                                waitNanos = Math.min(waitNanos, remaining);
+                            }
+                        }
+                    }
+                    if (timedOut) {
+                        continue;
+                    }
+                }
+
+                if (waitNanos == Long.MAX_VALUE) {
+                    wait();
+                }
+                else {
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            aborted = true;
+            failures.add(ie);
+        }
+
+        if (!failures.isEmpty()) {
+            final Throwable first = failures.get(0);
+            if (serial && failurePolicy == FailurePolicy.FAIL_FAST && failures.size() == 1 && (first instanceof RuntimeException || first instanceof Error)) {
+                // Behave like the plain sequential execution.
+                throw Throwables.propagate(first);
+            }
+            throw new LifecycleStageException(lifecycleStage, failures);
+        }
+    }
+
+    @GuardedBy("this")
+    private void start(final int node, final Executor pool)
+    {
+        final ListenerEntry entry = graph.getEntry(node);
+        states[node] = State.RUNNING;
+        startNanos[node] = System.nanoTime();
+        calling[node] = true;
+        running++;
+        called++;
+
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    synchronized (StageExecution.this) {
+                        if (states[node] != State.RUNNING) {
+                            // Gave up on the listener before it even started.
+                            return;
+                        }
+                        threads[node] = Thread.currentThread();
+                    }
+
+                    if (entry.getListener() instanceof AsyncListenerAdapter) {
+                        invokeAsync(node, entry, (AsyncListenerAdapter) entry.getListener());
+                        return;
+                    }
+
+                    Throwable failure = null;
+                    try {
+                        invoke(entry);
+                    }
+                    catch (Throwable t) {
+                        failure = t;
+                    }
+                    returned(node);
+                    complete(node, failure);
+                }
+            });
+        }
+        catch (RejectedExecutionException ree) {
+            returned(node);
+            complete(node, ree);
+        }
+    }
+
+    /**
+     * Frees the thread of a listener once its call has returned.
+     */
+    private synchronized void returned(final int node)
+    {
+        threads[node] = null;
+        if (interrupted[node]) {
+            // Do not leak the interrupt to whatever runs next on this thread.
+            Thread.interrupted();
+        }
+
+        if (calling[node]) {
+            calling[node] = false;
+            called--;
+            notifyAll();
+        }
+    }
+
+    private synchronized void complete(final int node, final Throwable failure)
+    {
+        if (states[node] != State.RUNNING) {
+            LOG.debug("Listener '%s' of stage '%s' finished after it was abandoned", graph.getEntry(node).getDisplayName(), lifecycleStage.getName());
+            return;
+        }
+
+        running--;
+        unsettled--;
+
+        if (failure != null) {
+            states[node] = State.FAILED;
+            failures.add(failure);
+            if (failurePolicy == FailurePolicy.BEST_EFFORT) {
+                LOG.warn(failure, "Listener '%s' of stage '%s' failed, continuing", graph.getEntry(node).getDisplayName(), lifecycleStage.getName());
+                release(node);
+            }
+            else {
+                aborted = true;
+            }
+        }
+        else {
+            states[node] = State.DONE;
+            release(node);
+        }
+        notifyAll();
+    }
+
+    @GuardedBy("this")
+    private void release(final int node)
+    {
+        for (final int dependent : graph.getDependents(node)) {
+            if (--waitingFor[dependent] == 0 && states[dependent] == State.PENDING) {
+                ready.add(dependent);
+            }
+        }
+    }
+
+    /**
+     * Gives up on a running listener.
+     */
+    @GuardedBy("this")
+    private void timedOut(final int node, final long now, final TimeoutPolicy timeoutPolicy)
+    {
+        final String listenerName = graph.getEntry(node).getDisplayName();
+        final long elapsedNanos = now - startNanos[node];
+
+        LOG.warn("Listener '%s' of stage '%s' did not finish within %d ms, %s", listenerName, lifecycleStage.getName(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), timeoutPolicy);
+
+        for (final LifecycleObserver observer : observers) {
+            try {
+                observer.onListenerTimedOut(lifecycleStage, listenerName, elapsedNanos);
+            }
+            catch (RuntimeException e) {
+                LOG.warn(e, "Observer %s failed", observer);
+            }
+        }
+
+        states[node] = State.ABANDONED;
+        running--;
+        unsettled--;
+        if (calling[node]) {
+            calling[node] = false;
+            called--;
+        }
+
+        if (timeoutPolicy == TimeoutPolicy.INTERRUPT && threads[node] != null) {
+            interrupted[node] = true;
+            threads[node].interrupt();
+        }
+
+        if (timeoutPolicy == TimeoutPolicy.FAIL) {
+            failures.add(new TimeoutException(String.format("Listener '%s' of stage '%s' timed out", listenerName, lifecycleStage.getName())));
+            aborted = true;
+        }
+        else {
+            release(node);
+        }
+    }
+
+    /**
+     * Gives up on all running listeners and skips all listeners that were not started yet.
+     */
+    @GuardedBy("this")
+    private void deadlineExpired(final long elapsedNanos, final TimeoutPolicy timeoutPolicy)
+    {
+        LOG.warn("Stage '%s' did not finish within %d ms, %s", lifecycleStage.getName(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), timeoutPolicy);
+
+        final long now = System.nanoTime();
+        for (int node = 0; node < graph.size(); node++) {
+            if (states[node] == State.RUNNING) {
+                // Fail the stage only once, below.
+                timedOut(node, now, timeoutPolicy == TimeoutPolicy.FAIL ? TimeoutPolicy.CONTINUE : timeoutPolicy);
+            }
+        }
+
+        for (int node = 0; node < graph.size(); node++) {
+            if (states[node] == State.PENDING) {
+                final String listenerName = graph.getEntry(node).getDisplayName();
+                LOG.warn("Skipping listener '%s' of stage '%s'", listenerName, lifecycleStage.getName());
+                for (final LifecycleObserver observer : observers) {
+                    try {
+                        observer.onListenerSkipped(lifecycleStage, listenerName);
+                    }
+                    catch (RuntimeException e) {
+                        LOG.warn(e, "Observer %s failed", observer);
+                    }
+                }
+                states[node] = State.SKIPPED;
+                unsettled--;
+            }
+        }
+        ready.clear();
+
+        if (timeoutPolicy == TimeoutPolicy.FAIL) {
+            failures.add(new TimeoutException(String.format("Stage '%s' did not finish within its deadline", lifecycleStage.getName())));
+            aborted = true;
+        }
+    }
+
+    /**
+     * Invokes a single listener on the current thread.
+     */
+    private void invoke(final ListenerEntry entry)
+    {
+        if (observers.isEmpty()) {
+            notify(entry.getListener());
+            return;
+        }
+
+        final String listenerName = entry.getDisplayName();
+        listenerStarting(entry);
+
+        final long startCpuNanos = currentThreadCpuTime();
+        final long listenerStartNanos = System.nanoTime();
+        Throwable failure = null;
+        try {
+            notify(entry.getListener());
+        }
+        catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        }
+        catch (Error e) {
+            failure = e;
+            throw e;
+        }
+        finally {
+            final long wallNanos = System.nanoTime() - listenerStartNanos;
+            final long endCpuNanos = currentThreadCpuTime();
+            final long listenerCpuNanos = (startCpuNanos < 0 || endCpuNanos < 0) ? -1L : endCpuNanos - startCpuNanos;
+            addCpuNanos(listenerCpuNanos);
+            listenerFinished(listenerName, wallNanos, listenerCpuNanos, failure);
+        }
+    }
+
+    /**
+     * Starts an asynchronous listener on the current thread. The listener finishes from the callback of its future, so the thread
+     * is free again as soon as the call has returned.
+     */
+    private void invokeAsync(final int node, final ListenerEntry entry, final AsyncListenerAdapter listener)
+    {
+        final String listenerName = entry.getDisplayName();
+        final boolean observed = !observers.isEmpty();
+        if (observed) {
+            listenerStarting(entry);
+        }
+
+        final long startCpuNanos = observed ? currentThreadCpuTime() : -1L;
+        final long listenerStartNanos = System.nanoTime();
+        ListenableFuture<?> future = null;
+        Throwable failure = null;
+        try {
+            future = notifyAsync(listener);
+        }
+        catch (Throwable t) {
+            failure = t;
+        }
+        final long endCpuNanos = observed ? currentThreadCpuTime() : -1L;
+        final long listenerCpuNanos = (startCpuNanos < 0 || endCpuNanos < 0) ? -1L : endCpuNanos - startCpuNanos;
+        returned(node);
+
+        if (future == null) {
+            finishAsync(node, listenerName, listenerStartNanos, listenerCpuNanos, failure);
+            return;
+        }
+
+        Futures.addCallback(future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(final Object result)
+            {
+                finishAsync(node, listenerName, listenerStartNanos, listenerCpuNanos, null);
+            }
+
+            @Override
+            public void onFailure(final Throwable t)
+            {
+                finishAsync(node, listenerName, listenerStartNanos, listenerCpuNanos, t);
+            }
+        });
+    }
+
+    /**
+     * Reports an asynchronous listener as finished. Its CPU time only covers the call, not the work behind its future.
+     */
+    private void finishAsync(final int node, final String listenerName, final long listenerStartNanos, final long listenerCpuNanos, @Nullable final Throwable failure)
+    {
+        if (!observers.isEmpty()) {
+            addCpuNanos(listenerCpuNanos);
+            listenerFinished(listenerName, System.nanoTime() - listenerStartNanos, listenerCpuNanos, failure);
+        }
+        complete(node, failure);
+    }
+
+    private void listenerStarting(final ListenerEntry entry)
+    {
+        final String listenerName = entry.getDisplayName();
+        final List<String> dependencies = graph.getDependencyNames(entry);
+        if (!dependencies.isEmpty()) {
+            for (final LifecycleObserver observer : observers) {
+                try {
+                    observer.onListenerDependencies(lifecycleStage, listenerName, dependencies);
+                }
+                catch (RuntimeException e) {
+                    LOG.warn(e, "Observer %s failed", observer);
+                }
+            }
+        }
+
+        for (final LifecycleObserver observer : observers) {
+            try {
+                observer.onListenerStarting(lifecycleStage, listenerName);
+            }
+            catch (RuntimeException e) {
+                LOG.warn(e, "Observer %s failed", observer);
+            }
+        }
+    }
+
+    private void listenerFinished(final String listenerName, final long wallNanos, final long listenerCpuNanos, @Nullable final Throwable failure)
+    {
+        for (final LifecycleObserver observer : observers) {
+            try {
+                observer.onListenerFinished(lifecycleStage, listenerName, wallNanos, listenerCpuNanos, failure);
+            }
+            catch (RuntimeException e) {
+                LOG.warn(e, "Observer %s failed", observer);
+            }
+        }
+    }
+
+    /**
+     * Calls a listener, marking the current thread as running a listener of the stage run.
+     */
+    private void notify(final LifecycleListener listener)
+    {
+        if (run == null) {
+            listener.onStage(lifecycleStage);
+            return;
+        }
+
+        final LifecycleDriver.StageRun previous = run.enter();
+        try {
+            listener.onStage(lifecycleStage);
+        }
+        finally {
+            LifecycleDriver.StageRun.exit(previous);
+        }
+    }
+
+    /**
+     * Starts an asynchronous listener, marking the current thread as running a listener of the stage run while it is called.
+     */
+    private ListenableFuture<?> notifyAsync(final AsyncListenerAdapter listener)
+    {
+        if (run == null) {
+            return listener.start(lifecycleStage);
+        }
+
+        final LifecycleDriver.StageRun previous = run.enter();
+        try {
+            return listener.start(lifecycleStage);
+        }
+        finally {
+            LifecycleDriver.StageRun.exit(previous);
+        }
+    }
+
+    private void addCpuNanos(final long listenerCpuNanos)
+    {
+        if (listenerCpuNanos < 0) {
+            cpuNanos.set(-1L);
+        }
+        else {
+            long current;
+            do {
+                current = cpuNanos.get();
+            } while (current >= 0 && !cpuNanos.compareAndSet(current, current + listenerCpuNanos));
+        }
+    }
+
+    /**
+     * Orders the ready listeners by their duration in the profile, longest first, and then by node number. Running the longest
+     * listeners first keeps a short listener from delaying the end of the stage when it is started last.
+     */
+    private Comparator<Integer> longestFirst(final int size)
+    {
+        final long [] expectedMillis = new long [size];
+        for (int node = 0; node < size; node++) {
+            expectedMillis[node] = profile.getExpectedMillis(lifecycleStage, graph.getEntry(node).getDisplayName());
+        }
+
+        return new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer first, final Integer second)
+            {
+                final int result = Long.compare(expectedMillis[second], expectedMillis[first]);
+                return result != 0 ? result : Integer.compare(first, second);
+            }
+        };
+    }
+
+    private static long currentThreadCpuTime()
+    {
+        try {
+            return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1L;
+        }
+        catch (UnsupportedOperationException e) {
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Execution settings of a single lifecycle stage.
+ */
+final class StageSettings
+{
+    /** Maximum time a single listener may run in nanoseconds, 0 for no limit. */
+    private volatile long listenerTimeoutNanos = 0L;
+
+    /** Maximum time the stage may run in nanoseconds, 0 for no limit. */
+    private volatile long stageDeadlineNanos = 0L;
+
+    private volatile TimeoutPolicy timeoutPolicy = TimeoutPolicy.CONTINUE;
+
+    private volatile FailurePolicy failurePolicy;
+
+    StageSettings(@Nonnull final FailurePolicy failurePolicy)
+    {
+        this.failurePolicy = failurePolicy;
+    }
+
+    long getListenerTimeoutNanos()
+    {
+        return listenerTimeoutNanos;
+    }
+
+    void setListenerTimeout(final long timeout, @Nonnull final TimeUnit unit)
+    {
+        this.listenerTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    long getStageDeadlineNanos()
+    {
+        return stageDeadlineNanos;
+    }
+
+    void setStageDeadline(final long timeout, @Nonnull final TimeUnit unit)
+    {
+        this.stageDeadlineNanos = unit.toNanos(timeout);
+    }
+
+    TimeoutPolicy getTimeoutPolicy()
+    {
+        return timeoutPolicy;
+    }
+
+    void setTimeoutPolicy(@Nonnull final TimeoutPolicy timeoutPolicy)
+    {
+        this.timeoutPolicy = timeoutPolicy;
+    }
+
+    FailurePolicy getFailurePolicy()
+    {
+        return failurePolicy;
+    }
+
+    void setFailurePolicy(@Nonnull final FailurePolicy failurePolicy)
+    {
+        this.failurePolicy = failurePolicy;
+    }
+
+    /**
+     * Returns true if the listeners of this stage must be watched for timeouts.
+     */
+    boolean isTimed()
+    {
+        return listenerTimeoutNanos > 0L || stageDeadlineNanos > 0L;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+/**
+ * Decides what happens to a stage when a listener exceeds its timeout or the stage exceeds its deadline.
+ *
+ * @see AbstractLifecycle#setListenerTimeout(LifecycleStage, long, java.util.concurrent.TimeUnit)
+ * @see AbstractLifecycle#setStageDeadline(LifecycleStage, long, java.util.concurrent.TimeUnit)
+ */
+public enum TimeoutPolicy
+{
+    /**
+     * Stop waiting for the listener and continue with the next listeners. The listener keeps running in the background.
+     * If the stage deadline has passed, all listeners that have not been started yet are skipped.
+     */
+    CONTINUE,
+
+    /**
+     * Same as {@link #CONTINUE}, but the thread running the listener is interrupted.
+     */
+    INTERRUPT,
+
+    /**
+     * Stop waiting for the listener and fail the stage. No further listeners are started.
+     */
+    FAIL;
+}
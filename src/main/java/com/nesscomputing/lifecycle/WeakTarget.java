@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Weak reference to the object a lifecycle listener acts on, e.g. an instance created by a provider. A {@link WeakTargetListener} does
+ * not keep its target from being garbage collected. Once the target was collected, all listeners for it are removed from the
+ * {@link AbstractLifecycle}s they were added to and the cleanup action, if any, is run.
+ * <p>
+ * The cleanup action replaces the stage actions the target will never see, e.g. it can release a resource the target held. It runs on
+ * a background thread and must not refer to the target itself, otherwise the target never becomes unreachable.
+ */
+@ThreadSafe
+public final class WeakTarget<T>
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+
+    /** Keeps the references with cleanup actions reachable until they have been processed. */
+    private static final Set<TargetReference<?>> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<TargetReference<?>, Boolean>());
+
+    private static final AtomicBoolean CLEANER_STARTED = new AtomicBoolean();
+
+    private final TargetReference<T> reference;
+
+    public static <U> WeakTarget<U> of(@Nonnull final U target)
+    {
+        return new WeakTarget<U>(target, null);
+    }
+
+    /**
+     * @param cleanupAction Run once after the target was garbage collected. Must not refer to the target.
+     */
+    public static <U> WeakTarget<U> of(@Nonnull final U target, @Nullable final Runnable cleanupAction)
+    {
+        return new WeakTarget<U>(target, cleanupAction);
+    }
+
+    private WeakTarget(final T target, final Runnable cleanupAction)
+    {
+        startCleaner();
+        this.reference = new TargetReference<T>(target, cleanupAction);
+        if (cleanupAction != null) {
+            PENDING.add(reference);
+        }
+    }
+
+    /**
+     * Returns the target or null if it was garbage collected.
+     */
+    @CheckForNull
+    public T get()
+    {
+        return reference.get();
+    }
+
+    /**
+     * Clears and enqueues the reference the way the garbage collector does once the target became unreachable, so that the
+     * listeners are removed and the cleanup action runs while the target may still be alive.
+     */
+    @VisibleForTesting
+    void simulateCollection()
+    {
+        reference.clear();
+        reference.enqueue();
+    }
+
+    /**
+     * Remembers a listener entry to remove from its stage once the target was collected.
+     */
+    void register(@Nonnull final ListenerLog listenerLog, @Nonnull final ListenerEntry entry)
+    {
+        reference.register(listenerLog, entry);
+    }
+
+    private static void startCleaner()
+    {
+        if (CLEANER_STARTED.compareAndSet(false, true)) {
+            final Thread cleaner = new Thread("lifecycle-cleaner") {
+                @Override
+                public void run()
+                {
+                    while (true) {
+                        try {
+                            ((TargetReference<?>) QUEUE.remove()).expunge();
+                        }
+                        catch (InterruptedException e) {
+                            // Nobody but this class owns the thread, keep going.
+                            continue;
+                        }
+                        catch (RuntimeException e) {
+                            LOG.warn(e, "Could not clean up collected lifecycle target");
+                        }
+                    }
+                }
+            };
+            cleaner.setDaemon(true);
+            // The thread lives as long as the JVM, do not pin the class loader of whoever happened to create the first target.
+            cleaner.setContextClassLoader(null);
+            cleaner.start();
+        }
+    }
+
+    private static class TargetReference<T> extends WeakReference<T>
+    {
+        private final Runnable cleanupAction;
+
+        @GuardedBy("this")
+        private List<ListenerLog> logs = new ArrayList<ListenerLog>(2);
+
+        @GuardedBy("this")
+        private List<ListenerEntry> entries = new ArrayList<ListenerEntry>(2);
+
+        TargetReference(final T target, final Runnable cleanupAction)
+        {
+            super(target, QUEUE);
+            this.cleanupAction = cleanupAction;
+        }
+
+        void register(final ListenerLog listenerLog, final ListenerEntry entry)
+        {
+            synchronized (this) {
+                if (logs != null) {
+                    logs.add(listenerLog);
+                    entries.add(entry);
+                    return;
+                }
+            }
+            // Collected while the listener was being added.
+            listenerLog.remove(entry);
+        }
+
+        void expunge()
+        {
+            final List<ListenerLog> expungedLogs;
+            final List<ListenerEntry> expungedEntries;
+            synchronized (this) {
+                expungedLogs = logs;
+                expungedEntries = entries;
+                logs = null;
+                entries = null;
+            }
+
+            for (int i = 0; i < expungedLogs.size(); i++) {
+                expungedLogs.get(i).remove(expungedEntries.get(i));
+            }
+
+            if (cleanupAction != null) {
+                PENDING.remove(this);
+                try {
+                    cleanupAction.run();
+                }
+                catch (RuntimeException e) {
+                    LOG.warn(e, "Cleanup action %s failed", cleanupAction);
+                }
+            }
+        }
+    }
+}
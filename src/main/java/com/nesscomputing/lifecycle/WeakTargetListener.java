@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A lifecycle listener that acts on a weakly referenced target. When added to an {@link AbstractLifecycle}, the listener is removed
+ * from its stage once the target was garbage collected; until then, it does nothing if the target is already gone.
+ */
+public abstract class WeakTargetListener<T> implements LifecycleListener
+{
+    private final WeakTarget<T> target;
+
+    protected WeakTargetListener(@Nonnull final WeakTarget<T> target)
+    {
+        this.target = target;
+    }
+
+    public WeakTarget<T> getTarget()
+    {
+        return target;
+    }
+
+    @Override
+    public final void onStage(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        final T object = target.get();
+        if (object != null) {
+            onStage(lifecycleStage, object);
+        }
+    }
+
+    /**
+     * Called when a stage is hit and the target is still alive.
+     */
+    protected abstract void onStage(@Nonnull LifecycleStage lifecycleStage, @Nonnull T object);
+}
@@ -15,20 +15,82 @@
  */
 package com.nesscomputing.lifecycle.guice;
 
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
 import com.google.inject.AbstractModule;
 import com.google.inject.matcher.Matchers;
+import com.nesscomputing.lifecycle.LifecycleTimings;
 
 /**
  * Very simple module to allow declarative inclusion of the Lifecycle.
  */
 public abstract class AbstractLifecycleModule extends AbstractModule
 {
+    private boolean lateBinding = false;
+    private Executor catchUpExecutor = null;
+    private int provisioningThreads = 0;
+    private boolean provisionProfiling = false;
+
+    /**
+     * Allows objects with {@link OnStage} methods to be injected after the lifecycle has started, e.g. rarely used components that
+     * are bound lazily instead of as eager singletons. Such an object is registered for all stages that have not started yet and
+     * is immediately caught up on the stages that have, in lifecycle order. Without late binding, these injections fail.
+     * <p>
+     * Stages are caught up outside of the lifecycle's stage execution, so the dependencies of the caught up methods on other listeners
+     * of the stage are not enforced.
+     *
+     * @param catchUpExecutor Executor to catch up on the missed stages or null to catch up on the injecting thread before the injection
+     *                        returns. Failures on the executor are logged.
+     */
+    public AbstractLifecycleModule enableLateBinding(@Nullable final Executor catchUpExecutor)
+    {
+        this.lateBinding = true;
+        this.catchUpExecutor = catchUpExecutor;
+        return this;
+    }
+
+    /**
+     * Creates the singletons bound with {@link ParallelSingletons} concurrently at the beginning of the CONFIGURE stage, after the
+     * injector has been created. Guice itself creates all eager singletons one after another on the thread that creates the injector.
+     *
+     * @param threads Maximum number of singletons created at the same time.
+     */
+    public AbstractLifecycleModule enableParallelProvisioning(final int threads)
+    {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.provisioningThreads = threads;
+        return this;
+    }
+
+    /**
+     * Binds a {@link ProvisionProfiler} that records how long the lifecycle managed objects took to create along with the stage and
+     * listener timings of the lifecycle.
+     */
+    public AbstractLifecycleModule enableProvisionProfiling()
+    {
+        this.provisionProfiling = true;
+        return this;
+    }
+
     @Override
     public void configure()
     {
         configureLifecycle();
 
-        LifecycleAnnotationFinder finder = new LifecycleAnnotationFinder();
+        ParallelProvisioner provisioner = null;
+        if (provisioningThreads > 0) {
+            provisioner = new ParallelProvisioner(provisioningThreads);
+            bind (ParallelProvisioner.class).toInstance(provisioner);
+        }
+
+        if (provisionProfiling) {
+            bind (ProvisionProfiler.class).toInstance(new ProvisionProfiler(new LifecycleTimings()));
+        }
+
+        LifecycleAnnotationFinder finder = new LifecycleAnnotationFinder(lateBinding, catchUpExecutor, provisioner);
 
         // Enable @OnStage lifecycle declarations
         bind (LifecycleAnnotationFinder.class).toInstance(finder);
@@ -27,6 +27,8 @@ import com.google.inject.Inject;
 import com.nesscomputing.lifecycle.Lifecycle;
 import com.nesscomputing.lifecycle.LifecycleListener;
 import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.WeakTarget;
+import com.nesscomputing.lifecycle.WeakTargetListener;
 
 /**
  * Base class for providers that want to hook the objects they provide into the Lifecyle. Any class extending this base class
@@ -37,8 +39,12 @@ public abstract class AbstractLifecycleProvider<T> implements LifecycleProvider<
 {
     private Lifecycle lifecycle = null;
 
+    private ProvisionProfiler profiler = null;
+
     private final List<StageEvent> stageEvents = new ArrayList<StageEvent>();
 
+    private volatile boolean weakTargets = false;
+
     /**
      * Add a lifecycle Action to this provider. The action will called back when the lifecycle stage is
      * hit and contain an object that was created by the provider.
@@ -49,6 +55,16 @@ public abstract class AbstractLifecycleProvider<T> implements LifecycleProvider<
         stageEvents.add(new StageEvent(stage, action));
     }
 
+    /**
+     * If true, the lifecycle references the objects created by this provider only weakly, so that objects that are no longer used
+     * can be garbage collected before the lifecycle ends. This is meant for unscoped providers that create many objects over the lifetime
+     * of a service. The actions of a collected object are never performed; {@link #createCleanupAction(Object)} can be used instead.
+     */
+    public void setWeakTargets(final boolean weakTargets)
+    {
+        this.weakTargets = weakTargets;
+    }
+
     /**
      * Called by Guice. Don't touch.
      */
@@ -58,25 +74,64 @@ public abstract class AbstractLifecycleProvider<T> implements LifecycleProvider<
         this.lifecycle = lifecycle;
     }
 
+    /**
+     * Called by Guice. Don't touch.
+     */
+    @Inject(optional=true)
+    public final void setProvisionProfiler(final ProvisionProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
     @Override
     public final T get()
     {
-        final T result = internalGet();
+        final T result = profiler == null ? internalGet() : profiledGet(profiler);
 
         if (lifecycle != null) {
-            for (final StageEvent stageEvent : stageEvents) {
-                lifecycle.addListener(stageEvent.getLifecycleStage(), new ActionLifecycleListener<T>(stageEvent.getLifecycleAction(), result));
+            if (weakTargets) {
+                final WeakTarget<T> target = WeakTarget.of(result, createCleanupAction(result));
+                for (final StageEvent stageEvent : stageEvents) {
+                    lifecycle.addListener(stageEvent.getLifecycleStage(), new WeakActionLifecycleListener<T>(stageEvent.getLifecycleAction(), target));
+                }
+            }
+            else {
+                for (final StageEvent stageEvent : stageEvents) {
+                    lifecycle.addListener(stageEvent.getLifecycleStage(), new ActionLifecycleListener<T>(stageEvent.getLifecycleAction(), result));
+                }
             }
         }
 
         return result;
     }
 
+    private T profiledGet(final ProvisionProfiler profiler)
+    {
+        final ProvisionProfiler.Measurement measurement = profiler.start();
+        T result = null;
+        try {
+            result = internalGet();
+            return result;
+        }
+        finally {
+            measurement.finish(result == null ? getClass().getName() : result.getClass().getName(), result == null);
+        }
+    }
+
     /**
      * Implemented instead of {@link Provider#get()} to provide the new instance.
      */
     protected abstract T internalGet();
 
+    /**
+     * With weak targets, returns an action that is run once an object created by this provider was garbage collected, e.g. to release
+     * a resource instead of a stop action. The action must not refer to the object itself. The default is no action.
+     */
+    protected Runnable createCleanupAction(final T obj)
+    {
+        return null;
+    }
+
     private class StageEvent
     {
         private final LifecycleStage stage;
@@ -119,7 +174,7 @@ public abstract class AbstractLifecycleProvider<T> implements LifecycleProvider<
         private final LifecycleAction<T> action;
         private final T obj;
 
-        private ActionLifecycleListener(@Nonnull final LifecycleAction<T> action, @Nonnull final T obj)
+        ActionLifecycleListener(@Nonnull final LifecycleAction<T> action, @Nonnull final T obj)
         {
             this.action = action;
             this.obj = obj;
@@ -130,5 +185,38 @@ public abstract class AbstractLifecycleProvider<T> implements LifecycleProvider<
         {
             action.performAction(obj);
         }
+
+        @Override
+        public String toString()
+        {
+            return action.getClass().getName() + " on " + obj.getClass().getName();
+        }
+    }
+
+    /**
+     *  Listener that performs a given LifecycleAction on a weakly referenced instance object.
+     */
+    public static class WeakActionLifecycleListener<T> extends WeakTargetListener<T>
+    {
+        private final LifecycleAction<T> action;
+
+        private WeakActionLifecycleListener(@Nonnull final LifecycleAction<T> action, @Nonnull final WeakTarget<T> target)
+        {
+            super(target);
+            this.action = action;
+        }
+
+        @Override
+        protected void onStage(@Nonnull final LifecycleStage stage, @Nonnull final T obj)
+        {
+            action.performAction(obj);
+        }
+
+        @Override
+        public String toString()
+        {
+            final T obj = getTarget().get();
+            return action.getClass().getName() + " on " + (obj == null ? "collected target" : obj.getClass().getName());
+        }
     }
 }
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.nesscomputing.lifecycle.LifecycleListener;
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+/**
+ * Listener registered after the lifecycle may have started, which is caught up on the stages that have already started.
+ * <p>
+ * Only the last started stage may still be executing while the listener is registered, and that execution may or may not see the
+ * listener. Between the catch-up of that stage and the execution racing it, the listener runs once; if the stage had already
+ * finished, its next execution is taken for the racing one. In every other case, including repeatable stages and stages that had
+ * not started yet, the listener runs whenever its stage executes.
+ */
+class CatchUpLifecycleListener implements LifecycleListener {
+    private enum State {
+        /** Runs on every execution. */
+        PLAIN,
+        /** Its stage may be executing, neither the execution nor the catch-up ran it yet. */
+        RACING,
+        /** The execution racing the catch-up ran it, so the catch-up must not. */
+        EXECUTED,
+        /** The catch-up ran it, so the execution racing it must not. */
+        CAUGHT_UP
+    }
+
+    private final LifecycleStage stage;
+    private final LifecycleListener delegate;
+    private final AtomicReference<State> state = new AtomicReference<State>(State.RACING);
+
+    CatchUpLifecycleListener(LifecycleStage stage, LifecycleListener delegate) {
+        this.stage = stage;
+        this.delegate = delegate;
+    }
+
+    LifecycleStage getStage() {
+        return stage;
+    }
+
+    /**
+     * Must be called with the stages started according to the lifecycle, read after the listener was registered. Returns true if the
+     * listener must be caught up on its stage with {@link #catchUp()}.
+     */
+    boolean started(List<LifecycleStage> startedStages) {
+        final boolean mayRace = !startedStages.isEmpty() && startedStages.get(startedStages.size() - 1).equals(stage);
+        if (!mayRace) {
+            state.compareAndSet(State.RACING, State.PLAIN);
+            state.compareAndSet(State.EXECUTED, State.PLAIN);
+        }
+        return startedStages.contains(stage);
+    }
+
+    /**
+     * Runs the listener for its stage, which started before the listener was registered.
+     */
+    void catchUp() {
+        while (true) {
+            final State current = state.get();
+            switch (current) {
+                case RACING:
+                    if (state.compareAndSet(current, State.CAUGHT_UP)) {
+                        delegate.onStage(stage);
+                        return;
+                    }
+                    break;
+                case EXECUTED:
+                    if (state.compareAndSet(current, State.PLAIN)) {
+                        return;
+                    }
+                    break;
+                default:
+                    delegate.onStage(stage);
+                    return;
+            }
+        }
+    }
+
+    @Override
+    public void onStage(LifecycleStage lifecycleStage) {
+        while (true) {
+            final State current = state.get();
+            switch (current) {
+                case RACING:
+                    if (state.compareAndSet(current, State.EXECUTED)) {
+                        delegate.onStage(lifecycleStage);
+                        return;
+                    }
+                    break;
+                case CAUGHT_UP:
+                    if (state.compareAndSet(current, State.PLAIN)) {
+                        return;
+                    }
+                    break;
+                default:
+                    delegate.onStage(lifecycleStage);
+                    return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
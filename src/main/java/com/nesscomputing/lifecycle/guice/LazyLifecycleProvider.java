@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.nesscomputing.lifecycle.ExtendedLifecycle;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleRegistration;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.guice.AbstractLifecycleProvider.ActionLifecycleListener;
+
+/**
+ * A lifecycle managed singleton that is created on first use instead of during boot. Until {@link #get()} is called for the first
+ * time, the delegate provider is not called and none of the actions run. The first call creates the object, registers all of its
+ * actions and runs those of the stages the lifecycle has already started (in lifecycle order), so that e.g. the STOP actions still
+ * run if the object was ever created. From then on, the actions run whenever their stage executes, as for an eagerly created object.
+ * <p>
+ * Concurrent callers of the first {@link #get()} wait for a single thread to create and start the object. If that fails, the actions
+ * of the object are unregistered, the exception is thrown to that caller and the next call tries again.
+ * <p>
+ * The provider caches the object itself, so it should be bound without a scope:
+ * <pre>
+ *   LifecycleProvider&lt;Foo&gt; provider = LazyLifecycleProvider.of(FooProvider.class);
+ *   provider.addAction(LifecycleStage.START_STAGE, ...);
+ *   bind(Foo.class).toProvider(provider);
+ * </pre>
+ */
+@ThreadSafe
+public final class LazyLifecycleProvider<T> implements LifecycleProvider<T>
+{
+    private final Class<? extends Provider<T>> providerClass;
+
+    private final List<StageAction<T>> stageActions = new ArrayList<StageAction<T>>();
+
+    private volatile Provider<T> delegate;
+
+    private volatile ExtendedLifecycle lifecycle = null;
+
+    private volatile T instance = null;
+
+    /**
+     * Returns a lazy LifecycleProvider that delegates to an existing provider. The provider is managed by Guice and injected.
+     */
+    public static <U> LazyLifecycleProvider<U> of(@Nonnull final Class<? extends Provider<U>> providerClass)
+    {
+        return new LazyLifecycleProvider<U>(providerClass, null);
+    }
+
+    /**
+     * Returns a lazy LifecycleProvider that delegates to an existing provider instance.
+     */
+    public static <U> LazyLifecycleProvider<U> of(@Nonnull final Provider<U> delegate)
+    {
+        return new LazyLifecycleProvider<U>(null, delegate);
+    }
+
+    private LazyLifecycleProvider(final Class<? extends Provider<T>> providerClass, final Provider<T> delegate)
+    {
+        this.providerClass = providerClass;
+        this.delegate = delegate;
+    }
+
+    @Inject
+    public void setInjector(@Nonnull final Injector injector)
+    {
+        if (delegate == null) {
+            delegate = injector.getInstance(providerClass);
+        }
+    }
+
+    /**
+     * Called by Guice. Don't touch. The lifecycle must be an {@link ExtendedLifecycle}, so that the actions of objects created late
+     * can be registered and caught up.
+     */
+    @Inject(optional=true)
+    public void setLifecycle(final Lifecycle lifecycle)
+    {
+        Preconditions.checkArgument(lifecycle instanceof ExtendedLifecycle, "Lifecycle %s must implement ExtendedLifecycle", lifecycle);
+        this.lifecycle = (ExtendedLifecycle) lifecycle;
+    }
+
+    @Override
+    public synchronized void addAction(final LifecycleStage stage, final LifecycleAction<T> action)
+    {
+        stageActions.add(new StageAction<T>(stage, action));
+    }
+
+    /**
+     * Returns true if the object has been created.
+     */
+    public boolean isCreated()
+    {
+        return instance != null;
+    }
+
+    @Override
+    public T get()
+    {
+        T result = instance;
+        if (result == null) {
+            synchronized (this) {
+                result = instance;
+                if (result == null) {
+                    result = create();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @GuardedBy("this")
+    private T create()
+    {
+        final T result = delegate.get();
+
+        if (lifecycle != null) {
+            final List<CatchUpLifecycleListener> listeners = new ArrayList<CatchUpLifecycleListener>(stageActions.size());
+            final List<LifecycleRegistration> registrations = new ArrayList<LifecycleRegistration>(stageActions.size());
+            try {
+                for (final StageAction<T> stageAction : stageActions) {
+                    final CatchUpLifecycleListener listener = new CatchUpLifecycleListener(stageAction.stage, new ActionLifecycleListener<T>(stageAction.action, result));
+                    registrations.add(lifecycle.register(stageAction.stage, listener));
+                    listeners.add(listener);
+                }
+
+                // Read after registering: a stage that starts later sees the listeners, a stage that started earlier is caught up.
+                final List<LifecycleStage> startedStages = lifecycle.getStartedStages();
+                final List<CatchUpLifecycleListener> caughtUp = new ArrayList<CatchUpLifecycleListener>();
+                for (final CatchUpLifecycleListener listener : listeners) {
+                    if (listener.started(startedStages)) {
+                        caughtUp.add(listener);
+                    }
+                }
+                for (final LifecycleStage startedStage : startedStages) {
+                    for (final CatchUpLifecycleListener listener : caughtUp) {
+                        if (listener.getStage().equals(startedStage)) {
+                            listener.catchUp();
+                        }
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                // The object is discarded, so it must not be stopped later on.
+                for (final LifecycleRegistration registration : registrations) {
+                    registration.remove();
+                }
+                throw e;
+            }
+        }
+
+        return result;
+    }
+
+    private static class StageAction<T>
+    {
+        private final LifecycleStage stage;
+        private final LifecycleAction<T> action;
+
+        private StageAction(@Nonnull final LifecycleStage stage, @Nonnull final LifecycleAction<T> action)
+        {
+            this.stage = stage;
+            this.action = action;
+        }
+    }
+}
@@ -16,20 +16,22 @@
 package com.nesscomputing.lifecycle.guice;
 
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.List;
+import java.util.concurrent.Executor;
 
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.inject.TypeLiteral;
 import com.google.inject.spi.InjectionListener;
 import com.google.inject.spi.TypeEncounter;
 import com.google.inject.spi.TypeListener;
+import com.nesscomputing.lifecycle.ExtendedLifecycle;
 import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleDependencies;
 import com.nesscomputing.lifecycle.LifecycleListener;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.logging.Log;
@@ -38,69 +40,186 @@ import com.nesscomputing.logging.Log;
  * Visit all Guice injections.  For each declared method in the class (and superclasses),
  * inspect for {@link OnStage} annotations.  Register such annotated methods with the injected
  * {@link Lifecycle} so that they are run.
+ * <p>
+ * By default, objects with {@link OnStage} methods may not be injected once the lifecycle has started. With late binding, such
+ * objects are registered for all stages that have not started yet and immediately caught up on the stages that have, in the order
+ * of the lifecycle, either on the injecting thread or on a catch-up executor.
  */
-@NotThreadSafe
+@ThreadSafe
 class LifecycleAnnotationFinder implements TypeListener {
     private static final Log LOG = Log.findLog();
 
+    private final boolean lateBinding;
+
+    /** Runs the stages missed by late injections, null to run them on the injecting thread. */
+    private final Executor catchUpExecutor;
+
+    /** Creates the parallel singletons at the start of the lifecycle, null if parallel provisioning is disabled. */
+    private final ParallelProvisioner provisioner;
+
+    /** Invocations found while the parallel singletons are created. Null if no provisioning is running. */
+    @GuardedBy("this")
+    private List<LifecycleInvocation> provisionedInvocations = null;
+
     /** Store all invocations found <b>before</b> the Lifecycle is available.  Null after lifecycle is available */
+    @GuardedBy("this")
     private List<LifecycleInvocation> foundInvocations = Lists.newArrayList();
 
     /** The lifecycle, which is null before it is available (i.e. before Guice creates it) */
+    @GuardedBy("this")
     private Lifecycle lifecycle;
 
+    LifecycleAnnotationFinder() {
+        this(false, null, null);
+    }
+
+    /**
+     * @param lateBinding If true, objects injected after the lifecycle has started are caught up instead of rejected.
+     * @param catchUpExecutor Runs the missed stages of late injections, or null to run them on the injecting thread.
+     * @param provisioner Creates the parallel singletons at the start of the lifecycle, or null.
+     */
+    LifecycleAnnotationFinder(boolean lateBinding, @Nullable Executor catchUpExecutor, @Nullable ParallelProvisioner provisioner) {
+        this.lateBinding = lateBinding;
+        this.catchUpExecutor = catchUpExecutor;
+        this.provisioner = provisioner;
+    }
+
     @Override
     public <I> void hear(TypeLiteral<I> type, TypeEncounter<I> encounter) {
         LOG.trace("Found new injectable type %s", type);
 
-        Class<? super I> klass = type.getRawType();
-        // Loop over the class and superclasses
-        do {
-            for (final Method m : klass.getDeclaredMethods()) {
+        // The class and superclass scan is cached across all finders.
+        final List<OnStageMethod> methods = OnStageMethodCache.forClass(type.getRawType());
+        if (methods.isEmpty()) {
+            return;
+        }
 
-                // Inspect declared methods for @OnStage
+        LOG.trace("Will invoke %s", methods);
 
-                final OnStage onStage = m.getAnnotation(OnStage.class);
-                if (onStage == null) {
-                    continue;
+        encounter.register(new InjectionListener<I>() {
+            @Override
+            public void afterInjection(I injectee) {
+                final List<LifecycleInvocation> invocations = Lists.newArrayListWithCapacity(methods.size());
+                for (final OnStageMethod method : methods) {
+                    invocations.add(new LifecycleInvocation(method, injectee));
                 }
+                addInvocations(invocations);
+            }
+        });
+    }
 
-                LOG.trace("Will invoke %s on %s", m, onStage.value());
+    private void addInvocations(List<LifecycleInvocation> invocations) {
+        final Lifecycle startedLifecycle;
+        synchronized (this) {
+            if (provisionedInvocations != null) { // Registered once all parallel singletons exist
+                provisionedInvocations.addAll(invocations);
+                return;
+            }
+            if (lifecycle != null && !lateBinding) { // If the lifecycle is available, register now
+                for (LifecycleInvocation invocation : invocations) {
+                    invocation.visit(lifecycle);
+                }
+                return;
+            }
+            if (lifecycle == null) { // Otherwise, do it later, when the lifecycle is injected
+                Preconditions.checkState(foundInvocations != null, "Injection after lifecycle start!");
+                foundInvocations.addAll(invocations);
+                return;
+            }
+            startedLifecycle = lifecycle;
+        }
+        addLate(extended(startedLifecycle), invocations, catchUpExecutor);
+    }
 
-                encounter.register(new InjectionListener<I>() {
-                    @Override
-                    public void afterInjection(I injectee) {
-                        LifecycleInvocation invocation = new LifecycleInvocation(new LifecycleStage(onStage.value()), injectee, m);
+    /**
+     * Registers the invocations and catches up on all stages that have already been started. The registered listeners run on every
+     * later execution of their stage; only an invocation for the stage that may still be executing is kept from running twice.
+     */
+    private void addLate(final ExtendedLifecycle lifecycle, final List<LifecycleInvocation> invocations, @Nullable final Executor executor) {
+        final List<CatchUpLifecycleListener> listeners = Lists.newArrayListWithCapacity(invocations.size());
+        for (LifecycleInvocation invocation : invocations) {
+            final CatchUpLifecycleListener listener = new CatchUpLifecycleListener(invocation.method.getStage(), invocation.method.bind(invocation.object));
+            lifecycle.addListener(invocation.method.getStage(), listener, invocation.method.getDependencies());
+            listeners.add(listener);
+        }
+
+        // Read after registering: a stage that starts later sees the listeners, a stage that started earlier is caught up.
+        final List<LifecycleStage> startedStages = lifecycle.getStartedStages();
+        final List<CatchUpLifecycleListener> caughtUp = Lists.newArrayList();
+        for (CatchUpLifecycleListener listener : listeners) {
+            if (listener.started(startedStages)) {
+                caughtUp.add(listener);
+            }
+        }
+        if (caughtUp.isEmpty()) {
+            return;
+        }
 
-                        if (lifecycle != null) { // If the lifecycle is available, register now
-                            addListener(invocation);
-                        } else { // Otherwise, do it later, when the lifecycle is injected
-                            Preconditions.checkState(foundInvocations != null, "Injection after lifecycle start!");
-                            foundInvocations.add(invocation);
+        final Runnable catchUp = new Runnable() {
+            @Override
+            public void run() {
+                for (LifecycleStage stage : startedStages) {
+                    for (CatchUpLifecycleListener listener : caughtUp) {
+                        if (listener.getStage().equals(stage)) {
+                            listener.catchUp();
                         }
                     }
-                });
-
+                }
             }
-            klass = klass.getSuperclass();
-        } while (klass != null);
+        };
+
+        if (executor == null) {
+            catchUp.run();
+        } else {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        catchUp.run();
+                    } catch (RuntimeException e) {
+                        LOG.error(e, "Catching up on stages %s failed", startedStages);
+                    }
+                }
+            });
+        }
     }
 
     /**
      * Called once Guice has created our Lifecycle, so we can start registering callbacks
      */
-    void lifecycleAvailable(Lifecycle lifecycle) {
+    synchronized void lifecycleAvailable(final Lifecycle lifecycle) {
         LOG.debug("Lifecycle now available, draining queue");
 
+        if (lateBinding) {
+            extended(lifecycle); // Fail now rather than on the first late injection.
+        }
+
+        // Create the parallel singletons before anything else happens in the lifecycle. All other CONFIGURE listeners, including
+        // those registered without Guice, wait for them.
+
+        if (provisioner != null) {
+            final ExtendedLifecycle extendedLifecycle = extended(lifecycle);
+            extendedLifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+                @Override
+                public void onStage(LifecycleStage lifecycleStage) {
+                    provision(extendedLifecycle, lifecycleStage);
+                }
+            }, LifecycleDependencies.named(ParallelProvisioner.PROVISIONING_LISTENER).beforeAll());
+        }
+
         // First, make sure we will not let any more listeners be added once the lifecycle starts going.
 
-        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
-            @Override
-            public void onStage(LifecycleStage lifecycleStage) {
-                LOG.debug("Lifecycle started, further injections disallowed");
-                LifecycleAnnotationFinder.this.lifecycle = null; // Now both lifecycle and foundInvocations are null, triggering ISE on further discoveries
-            }
-        });
+        if (!lateBinding) {
+            addListener(lifecycle, LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+                @Override
+                public void onStage(LifecycleStage lifecycleStage) {
+                    LOG.debug("Lifecycle started, further injections disallowed");
+                    synchronized (LifecycleAnnotationFinder.this) {
+                        LifecycleAnnotationFinder.this.lifecycle = null; // Now both lifecycle and foundInvocations are null, triggering ISE on further discoveries
+                    }
+                }
+            }, provisioner == null ? LifecycleDependencies.NONE : LifecycleDependencies.named("lifecycle-injection-guard").after(ParallelProvisioner.PROVISIONING_LISTENER));
+        }
 
         // Now direct further visits to the lifecycle directly
 
@@ -114,7 +233,48 @@ class LifecycleAnnotationFinder implements TypeListener {
         foundInvocations = null;
     }
 
-    void addListener(LifecycleInvocation invocation) {
+    /**
+     * Creates all parallel singletons, then registers their {@link OnStage} methods and runs those of the current stage.
+     */
+    private void provision(ExtendedLifecycle lifecycle, LifecycleStage lifecycleStage) {
+        synchronized (this) {
+            provisionedInvocations = Lists.newArrayList();
+        }
+
+        final List<LifecycleInvocation> invocations;
+        try {
+            provisioner.provision(lifecycleStage);
+        } finally {
+            synchronized (this) {
+                invocations = provisionedInvocations;
+                provisionedInvocations = null;
+            }
+        }
+
+        addLate(lifecycle, invocations, null);
+    }
+
+    /**
+     * Late binding and parallel provisioning need to order, register and catch up listeners, which plain lifecycles can not do.
+     */
+    private static ExtendedLifecycle extended(Lifecycle lifecycle) {
+        Preconditions.checkState(lifecycle instanceof ExtendedLifecycle, "Lifecycle %s must implement ExtendedLifecycle for late binding and parallel provisioning", lifecycle);
+        return (ExtendedLifecycle) lifecycle;
+    }
+
+    /**
+     * Adds a listener, which must not depend on other listeners unless the lifecycle is an {@link ExtendedLifecycle}.
+     */
+    private static void addListener(Lifecycle lifecycle, LifecycleStage stage, LifecycleListener listener, LifecycleDependencies dependencies) {
+        if (lifecycle instanceof ExtendedLifecycle) {
+            ((ExtendedLifecycle) lifecycle).addListener(stage, listener, dependencies);
+        } else {
+            Preconditions.checkState(!dependencies.hasDependencies(), "Lifecycle %s does not support listener dependencies %s", lifecycle, dependencies);
+            lifecycle.addListener(stage, listener);
+        }
+    }
+
+    synchronized void addListener(LifecycleInvocation invocation) {
         Preconditions.checkState(lifecycle != null, "no lifecycle");
         invocation.visit(lifecycle);
     }
@@ -123,35 +283,18 @@ class LifecycleAnnotationFinder implements TypeListener {
      * Stored lifecycle listener (stage, object, method)
      */
     static class LifecycleInvocation {
-        private final LifecycleStage stage;
-        private final Method method;
+        private final OnStageMethod method;
         private final Object object;
 
-        private LifecycleInvocation(LifecycleStage stage, Object object, Method method) {
-            this.stage = stage;
-            this.object = object;
+        private LifecycleInvocation(OnStageMethod method, Object object) {
             this.method = method;
+            this.object = object;
 
-            Preconditions.checkState(method.getParameterTypes().length == 0, "Method '%s' must have no arguments to be a @OnStage method", method);
+            Preconditions.checkState(method.getParameterCount() == 0, "Method '%s' must have no arguments to be a @OnStage method", method.getMethodName());
         }
 
         void visit(Lifecycle lifecycle) {
-            method.setAccessible(true);
-            lifecycle.addListener(stage, new LifecycleListener() {
-                @Override
-                public void onStage(LifecycleStage lifecycleStage) {
-                    try {
-                        method.invoke(object);
-                    } catch (IllegalAccessException e) {
-                        Throwables.propagate(e);
-                    } catch (InvocationTargetException e) {
-                        if (e.getCause() == null) {
-                            Throwables.propagate(e);
-                        }
-                        Throwables.propagate(e.getCause());
-                    }
-                }
-            });
+            LifecycleAnnotationFinder.addListener(lifecycle, method.getStage(), method.bind(object), method.getDependencies());
         }
     }
 }
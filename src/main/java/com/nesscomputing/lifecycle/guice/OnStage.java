@@ -27,9 +27,29 @@ import java.lang.annotation.Target;
  * The method must not take arguments, and should not return a value.
  * All instances of your enclosing class must be created before the lifecycle actually starts.
  * In practice this usually means that this should only be used on {@link Singleton} classes.
+ * Ordering relative to other listeners of the same stage can be declared using {@link #after()} and {@link #before()},
+ * see {@link com.nesscomputing.lifecycle.LifecycleDependencies}.
+ * Dependencies are declared in "startup order". For the STOP stage, the ordering is reversed, so that dependencies are torn down after
+ * the listeners that depend on them.
  */
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface OnStage {
     String value();
+
+    /**
+     * Name of this listener, which other listeners can refer to in {@link #after()} and {@link #before()}.
+     * Defaults to the fully qualified class name and the method name, separated by a '.'.
+     */
+    String name() default "";
+
+    /**
+     * Names of listeners in the same stage that must run before this method. For the STOP stage, they run after it.
+     */
+    String [] after() default {};
+
+    /**
+     * Names of listeners in the same stage that must run after this method. For the STOP stage, they run before it.
+     */
+    String [] before() default {};
 }
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Compile time index of the {@link OnStage} methods declared by a class. Implementations are generated by the
+ * {@link OnStageIndexProcessor} and used instead of scanning the class reflectively. Methods declared by superclasses
+ * are not part of the index, they are found through the index (or reflective scan) of the superclass.
+ */
+public interface OnStageIndex
+{
+    /** Name of the resource that lists all classes for which an index was generated, one binary class name per line. */
+    String INDEX_RESOURCE = "META-INF/ness-lifecycle/on-stage-index";
+
+    /** Suffix appended to the binary name of a class to get the name of its generated index. */
+    String INDEX_SUFFIX = "$$OnStageIndex";
+
+    /**
+     * Returns the class whose methods are indexed.
+     */
+    Class<?> getIndexedClass();
+
+    /**
+     * Returns all {@link OnStage} methods declared by the indexed class.
+     */
+    List<Entry> getEntries();
+
+    /**
+     * Invokes an indexed method.
+     *
+     * @param entry Position of the method in {@link #getEntries()}.
+     * @param target The object to invoke the method on. Ignored for static methods.
+     */
+    void invoke(int entry, Object target) throws Throwable;
+
+    /**
+     * A single indexed {@link OnStage} method.
+     */
+    final class Entry
+    {
+        private final String methodName;
+        private final String stage;
+        private final String name;
+        private final String [] after;
+        private final String [] before;
+
+        /**
+         * @param methodName Name of the annotated method.
+         * @param stage Value of {@link OnStage#value()}.
+         * @param name Listener name, {@link OnStage#name()} or its default.
+         * @param after Value of {@link OnStage#after()}.
+         * @param before Value of {@link OnStage#before()}.
+         */
+        public Entry(@Nonnull final String methodName, @Nonnull final String stage, @Nonnull final String name, @Nonnull final String [] after, @Nonnull final String [] before)
+        {
+            this.methodName = methodName;
+            this.stage = stage;
+            this.name = name;
+            this.after = after.clone();
+            this.before = before.clone();
+        }
+
+        public String getMethodName()
+        {
+            return methodName;
+        }
+
+        public String getStage()
+        {
+            return stage;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String [] getAfter()
+        {
+            return after.clone();
+        }
+
+        public String [] getBefore()
+        {
+            return before.clone();
+        }
+
+        @Override
+        public String toString()
+        {
+            return new ToStringBuilder(this)
+                .append("methodName", methodName)
+                .append("stage", stage)
+                .append("name", name)
+                .toString();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+/**
+ * Annotation processor that generates an {@link OnStageIndex} for every class declaring {@link OnStage} methods, so that
+ * the methods can be found and invoked without reflection at runtime. Classes with private {@link OnStage} methods or
+ * private enclosing classes can not be invoked from generated code and are left to the reflective scan.
+ * <p>
+ * The processor is not registered automatically. Enable it in the compiler configuration of the project that contains
+ * the lifecycle managed classes, e.g. using <tt>-processor com.nesscomputing.lifecycle.guice.OnStageIndexProcessor</tt>
+ * or the <tt>annotationProcessors</tt> setting of the maven-compiler-plugin.
+ */
+@SupportedAnnotationTypes("com.nesscomputing.lifecycle.guice.OnStage")
+public class OnStageIndexProcessor extends AbstractProcessor
+{
+    private static final String INDEX_INTERFACE = OnStageIndex.class.getCanonicalName();
+
+    private final Set<String> indexedClasses = new TreeSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv)
+    {
+        if (roundEnv.processingOver()) {
+            writeIndexResource();
+            return false;
+        }
+
+        final Map<TypeElement, List<ExecutableElement>> methodsByType = new LinkedHashMap<TypeElement, List<ExecutableElement>>();
+
+        for (final Element element : roundEnv.getElementsAnnotatedWith(OnStage.class)) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            final ExecutableElement method = (ExecutableElement) element;
+            if (!method.getParameters().isEmpty()) {
+                processingEnv.getMessager().printMessage(Kind.ERROR, "@OnStage methods must have no arguments", method);
+                continue;
+            }
+
+            final TypeElement type = (TypeElement) method.getEnclosingElement();
+            List<ExecutableElement> methods = methodsByType.get(type);
+            if (methods == null) {
+                methods = new ArrayList<ExecutableElement>();
+                methodsByType.put(type, methods);
+            }
+            methods.add(method);
+        }
+
+        for (final Map.Entry<TypeElement, List<ExecutableElement>> entry : methodsByType.entrySet()) {
+            final TypeElement type = entry.getKey();
+            if (isIndexable(type, entry.getValue())) {
+                try {
+                    writeIndex(type, entry.getValue());
+                    indexedClasses.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+                }
+                catch (IOException ioe) {
+                    processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write @OnStage index: " + ioe.getMessage(), type);
+                }
+            }
+            else {
+                processingEnv.getMessager().printMessage(Kind.NOTE, "Not generating an @OnStage index, methods or class are not accessible", type);
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isIndexable(final TypeElement type, final List<ExecutableElement> methods)
+    {
+        for (final ExecutableElement method : methods) {
+            if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+        }
+
+        Element element = type;
+        while (element instanceof TypeElement) {
+            final TypeElement enclosing = (TypeElement) element;
+            if (enclosing.getModifiers().contains(Modifier.PRIVATE)
+                || enclosing.getNestingKind() == NestingKind.LOCAL
+                || enclosing.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            element = enclosing.getEnclosingElement();
+        }
+        return true;
+    }
+
+    private void writeIndex(final TypeElement type, final List<ExecutableElement> methods) throws IOException
+    {
+        final Elements elements = processingEnv.getElementUtils();
+        final PackageElement pkg = elements.getPackageOf(type);
+        final String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        final String binaryName = elements.getBinaryName(type).toString();
+        final String indexName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1) + OnStageIndex.INDEX_SUFFIX;
+        final String typeName = type.getQualifiedName().toString();
+
+        final Writer writer = processingEnv.getFiler().createSourceFile(binaryName + OnStageIndex.INDEX_SUFFIX, type).openWriter();
+        final PrintWriter out = new PrintWriter(writer);
+        try {
+            if (!packageName.isEmpty()) {
+                out.printf("package %s;%n%n", packageName);
+            }
+            out.printf("/** Generated by %s, do not edit. */%n", getClass().getName());
+            out.printf("public final class %s implements %s%n{%n", indexName, INDEX_INTERFACE);
+            out.printf("    private static final java.util.List<%s.Entry> ENTRIES = java.util.Collections.unmodifiableList(java.util.Arrays.asList(%n", INDEX_INTERFACE);
+
+            for (int i = 0; i < methods.size(); i++) {
+                final ExecutableElement method = methods.get(i);
+                final OnStage onStage = method.getAnnotation(OnStage.class);
+                final String methodName = method.getSimpleName().toString();
+                final String name = onStage.name().isEmpty() ? OnStageMethod.defaultName(binaryName, methodName) : onStage.name();
+
+                out.printf("        new %s.Entry(%s, %s, %s, %s, %s)%s%n", INDEX_INTERFACE,
+                           literal(methodName), literal(onStage.value()), literal(name), literal(onStage.after()), literal(onStage.before()),
+                           i + 1 < methods.size() ? "," : "));");
+            }
+
+            out.printf("%n    @Override%n    public Class<?> getIndexedClass()%n    {%n        return %s.class;%n    }%n", typeName);
+            out.printf("%n    @Override%n    public java.util.List<%s.Entry> getEntries()%n    {%n        return ENTRIES;%n    }%n", INDEX_INTERFACE);
+            out.printf("%n    @Override%n    public void invoke(final int entry, final Object target) throws Throwable%n    {%n        switch (entry) {%n");
+
+            for (int i = 0; i < methods.size(); i++) {
+                final ExecutableElement method = methods.get(i);
+                final String receiver = method.getModifiers().contains(Modifier.STATIC) ? typeName : "((" + typeName + ") target)";
+                out.printf("        case %d:%n            %s.%s();%n            break;%n", i, receiver, method.getSimpleName());
+            }
+
+            out.printf("        default:%n            throw new IndexOutOfBoundsException(String.valueOf(entry));%n        }%n    }%n}%n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private String literal(final String value)
+    {
+        return processingEnv.getElementUtils().getConstantExpression(value);
+    }
+
+    private String literal(final String [] values)
+    {
+        final List<String> literals = new ArrayList<String>(values.length);
+        for (final String value : values) {
+            literals.add(literal(value));
+        }
+        return "new String [] {" + Joiner.on(", ").join(literals) + "}";
+    }
+
+    /**
+     * Writes the list of indexed classes, merged with the list from a previous (incremental) compilation.
+     */
+    private void writeIndexResource()
+    {
+        if (indexedClasses.isEmpty()) {
+            return;
+        }
+
+        try {
+            final FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", OnStageIndex.INDEX_RESOURCE);
+            final InputStream in = existing.openInputStream();
+            try {
+                final String content = new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+                for (final String className : Splitter.on('\n').trimResults().omitEmptyStrings().split(content)) {
+                    indexedClasses.add(className);
+                }
+            }
+            finally {
+                Closeables.closeQuietly(in);
+            }
+        }
+        catch (IOException ioe) {
+            // No previous index, ignore.
+        }
+
+        try {
+            final FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", OnStageIndex.INDEX_RESOURCE);
+            final OutputStream out = resource.openOutputStream();
+            try {
+                out.write((Joiner.on('\n').join(indexedClasses) + "\n").getBytes(Charsets.UTF_8));
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException ioe) {
+            processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write @OnStage index resource: " + ioe.getMessage());
+        }
+    }
+}
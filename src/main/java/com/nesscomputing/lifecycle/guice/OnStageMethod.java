@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import com.google.common.base.Throwables;
+import com.nesscomputing.lifecycle.LifecycleDependencies;
+import com.nesscomputing.lifecycle.LifecycleListener;
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+/**
+ * A resolved {@link OnStage} method: the stage, the listener dependencies and a way to invoke it on a target.
+ * Methods are either found by reflection or read from a generated {@link OnStageIndex}.
+ */
+abstract class OnStageMethod {
+    private final LifecycleStage stage;
+    private final LifecycleDependencies dependencies;
+
+    private OnStageMethod(LifecycleStage stage, LifecycleDependencies dependencies) {
+        this.stage = stage;
+        this.dependencies = dependencies;
+    }
+
+    static OnStageMethod forMethod(Method method, OnStage onStage) {
+        return new ReflectedMethod(method, onStage);
+    }
+
+    static OnStageMethod forIndex(OnStageIndex index, int entry) {
+        return new IndexedMethod(index, entry);
+    }
+
+    /**
+     * Default listener name for an annotated method.
+     */
+    static String defaultName(String className, String methodName) {
+        return className + "." + methodName;
+    }
+
+    LifecycleStage getStage() {
+        return stage;
+    }
+
+    LifecycleDependencies getDependencies() {
+        return dependencies;
+    }
+
+    abstract String getMethodName();
+
+    abstract int getParameterCount();
+
+    /**
+     * True if this method was read from a generated index.
+     */
+    abstract boolean isIndexed();
+
+    /**
+     * Bind the method to its target, resulting in a listener for the stage.
+     */
+    abstract LifecycleListener bind(Object target);
+
+    @Override
+    public String toString() {
+        return getMethodName() + " on " + stage.getName();
+    }
+
+    private static class ReflectedMethod extends OnStageMethod {
+        private final Method method;
+        private final MethodHandle handle;
+
+        ReflectedMethod(Method method, OnStage onStage) {
+            super(LifecycleStage.of(onStage.value()), dependencies(method, onStage));
+            this.method = method;
+
+            method.setAccessible(true);
+            try {
+                this.handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        private static LifecycleDependencies dependencies(Method method, OnStage onStage) {
+            String name = onStage.name();
+            if (name.isEmpty()) {
+                name = defaultName(method.getDeclaringClass().getName(), method.getName());
+            }
+            return LifecycleDependencies.named(name).after(onStage.after()).before(onStage.before());
+        }
+
+        @Override
+        String getMethodName() {
+            return method.toString();
+        }
+
+        @Override
+        int getParameterCount() {
+            return method.getParameterTypes().length;
+        }
+
+        @Override
+        boolean isIndexed() {
+            return false;
+        }
+
+        /**
+         * Bind the method to its target once, so that invoking it later needs neither access checks nor argument arrays.
+         */
+        @Override
+        LifecycleListener bind(Object target) {
+            MethodHandle bound = handle;
+            if (!Modifier.isStatic(method.getModifiers())) {
+                bound = bound.bindTo(target);
+            }
+            return new MethodHandleListener(method, bound.asType(MethodType.methodType(void.class)));
+        }
+    }
+
+    private static class IndexedMethod extends OnStageMethod {
+        private final OnStageIndex index;
+        private final int entry;
+        private final String methodName;
+
+        IndexedMethod(OnStageIndex index, int entry) {
+            super(LifecycleStage.of(index.getEntries().get(entry).getStage()), dependencies(index.getEntries().get(entry)));
+            this.index = index;
+            this.entry = entry;
+            this.methodName = index.getIndexedClass().getName() + "." + index.getEntries().get(entry).getMethodName() + "()";
+        }
+
+        private static LifecycleDependencies dependencies(OnStageIndex.Entry entry) {
+            return LifecycleDependencies.named(entry.getName()).after(entry.getAfter()).before(entry.getBefore());
+        }
+
+        @Override
+        String getMethodName() {
+            return methodName;
+        }
+
+        @Override
+        int getParameterCount() {
+            return 0;
+        }
+
+        @Override
+        boolean isIndexed() {
+            return true;
+        }
+
+        @Override
+        LifecycleListener bind(final Object target) {
+            return new LifecycleListener() {
+                @Override
+                public void onStage(LifecycleStage lifecycleStage) {
+                    try {
+                        index.invoke(entry, target);
+                    } catch (Throwable t) {
+                        throw Throwables.propagate(t);
+                    }
+                }
+
+                @Override
+                public String toString() {
+                    return methodName;
+                }
+            };
+        }
+    }
+
+    /**
+     * Invokes a bound @OnStage method.
+     */
+    static class MethodHandleListener implements LifecycleListener {
+        private final Method method;
+        private final MethodHandle handle;
+
+        MethodHandleListener(Method method, MethodHandle handle) {
+            this.method = method;
+            this.handle = handle;
+        }
+
+        @Override
+        public void onStage(LifecycleStage lifecycleStage) {
+            try {
+                handle.invokeExact();
+            } catch (Throwable t) {
+                throw Throwables.propagate(t);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+}
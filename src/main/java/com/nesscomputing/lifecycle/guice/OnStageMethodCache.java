@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Caches the {@link OnStage} methods of a class and all its superclasses. The cache is shared by all injectors. It is
+ * stored with the class itself, so it does not keep classes or their class loaders from being unloaded.
+ * <p>
+ * Classes that were compiled with the {@link OnStageIndexProcessor} are read from their generated {@link OnStageIndex},
+ * all other classes are scanned using reflection.
+ */
+public final class OnStageMethodCache {
+    private static final Log LOG = Log.findLog();
+
+    private static final AtomicLong LOOKUPS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong INDEXED = new AtomicLong();
+
+    private static final ClassValue<List<OnStageMethod>> METHODS = new ClassValue<List<OnStageMethod>>() {
+        @Override
+        protected List<OnStageMethod> computeValue(Class<?> type) {
+            MISSES.incrementAndGet();
+
+            final ImmutableList.Builder<OnStageMethod> builder = ImmutableList.builder();
+
+            final OnStageIndex index = findIndex(type);
+            if (index != null) {
+                INDEXED.incrementAndGet();
+                for (int i = 0; i < index.getEntries().size(); i++) {
+                    builder.add(OnStageMethod.forIndex(index, i));
+                }
+            }
+            else {
+                for (final Method m : type.getDeclaredMethods()) {
+                    final OnStage onStage = m.getAnnotation(OnStage.class);
+                    if (onStage != null) {
+                        builder.add(OnStageMethod.forMethod(m, onStage));
+                    }
+                }
+            }
+
+            // Superclass methods follow the methods of the class itself.
+            final Class<?> superclass = type.getSuperclass();
+            if (superclass != null) {
+                builder.addAll(forClass(superclass));
+            }
+            return builder.build();
+        }
+    };
+
+    /** Names of all indexed classes visible to a class loader. Only holds strings, so the class loaders can still be collected. */
+    private static final LoadingCache<ClassLoader, Set<String>> INDEXED_CLASSES = CacheBuilder.newBuilder()
+        .weakKeys()
+        .build(new CacheLoader<ClassLoader, Set<String>>() {
+            @Override
+            public Set<String> load(ClassLoader classLoader) throws IOException {
+                final ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+                final Enumeration<URL> resources = classLoader.getResources(OnStageIndex.INDEX_RESOURCE);
+                while (resources.hasMoreElements()) {
+                    final InputStream in = resources.nextElement().openStream();
+                    try {
+                        final String content = new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+                        builder.addAll(Splitter.on('\n').trimResults().omitEmptyStrings().split(content));
+                    }
+                    finally {
+                        Closeables.closeQuietly(in);
+                    }
+                }
+                return builder.build();
+            }
+        });
+
+    private OnStageMethodCache() {
+    }
+
+    /**
+     * Returns the @OnStage methods of a class and its superclasses.
+     */
+    static List<OnStageMethod> forClass(Class<?> type) {
+        LOOKUPS.incrementAndGet();
+        return METHODS.get(type);
+    }
+
+    /**
+     * Returns the generated index for a class or null if the class was not compiled with the index processor.
+     */
+    private static OnStageIndex findIndex(Class<?> type) {
+        final ClassLoader classLoader = type.getClassLoader();
+        if (classLoader == null) {
+            return null;
+        }
+
+        try {
+            if (!INDEXED_CLASSES.getUnchecked(classLoader).contains(type.getName())) {
+                return null;
+            }
+            final Class<?> indexClass = Class.forName(type.getName() + OnStageIndex.INDEX_SUFFIX, true, classLoader);
+            final OnStageIndex index = indexClass.asSubclass(OnStageIndex.class).newInstance();
+            if (index.getIndexedClass() == type) {
+                return index;
+            }
+            LOG.warn("Index %s does not belong to %s, ignoring it", indexClass, type);
+        }
+        catch (Exception e) {
+            LOG.warn(e, "Could not load @OnStage index for %s, falling back to reflection", type);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of class lookups (including superclasses) that were answered from the cache.
+     */
+    public static long getHitCount() {
+        return Math.max(0L, LOOKUPS.get() - getMissCount());
+    }
+
+    /**
+     * Returns the number of classes (including superclasses) that had to be resolved, either from an index or by scanning.
+     */
+    public static long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * Returns the number of classes that were resolved from a generated index instead of scanning.
+     */
+    public static long getIndexedCount() {
+        return INDEXED.get();
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.nesscomputing.lifecycle.LifecycleExecutors;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.LifecycleStageException;
+import com.nesscomputing.logging.Log;
+
+/**
+ * Creates the singletons bound with {@link ParallelSingletons} concurrently. A singleton that depends on another one waits for it
+ * (or creates it itself), so dependencies are honored without declaring them twice.
+ */
+@ThreadSafe
+final class ParallelProvisioner
+{
+    private static final Log LOG = Log.findLog();
+
+    /** Name of the CONFIGURE listener that runs the provisioning. */
+    static final String PROVISIONING_LISTENER = "lifecycle-provisioning";
+
+    private final int threads;
+
+    private final List<ParallelSingletonProvider<?>> providers = new CopyOnWriteArrayList<ParallelSingletonProvider<?>>();
+
+    ParallelProvisioner(final int threads)
+    {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.threads = threads;
+    }
+
+    void add(@Nonnull final ParallelSingletonProvider<?> provider)
+    {
+        providers.add(provider);
+    }
+
+    /**
+     * Creates all singletons that have not been created yet and waits for them.
+     *
+     * @throws LifecycleStageException If any singleton could not be created.
+     */
+    void provision(@Nonnull final LifecycleStage lifecycleStage)
+    {
+        LOG.debug("Provisioning %d singletons on %d threads", providers.size(), threads);
+
+        final ExecutorService executor = LifecycleExecutors.newBoundedExecutor(threads);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>(providers.size());
+            for (final ParallelSingletonProvider<?> provider : providers) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        provider.get();
+                    }
+                }));
+            }
+
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                }
+                catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(ie);
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new LifecycleStageException(lifecycleStage, failures);
+        }
+    }
+}
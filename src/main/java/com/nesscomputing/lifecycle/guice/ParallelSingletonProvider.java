@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+
+/**
+ * Caches the instance of a parallel singleton. Unlike the Guice singleton scope, which serializes the creation of all singletons on a
+ * global lock, every provider only locks itself, so independent singletons can be created at the same time.
+ * <p>
+ * Because every provider has its own lock, singletons that depend on each other and are created on different threads would wait
+ * for each other forever. Before waiting for a provider, a thread therefore follows the chain of threads creating singletons and
+ * the providers they wait for, and fails if the chain leads back to itself.
+ */
+@ThreadSafe
+final class ParallelSingletonProvider<T> implements Provider<T>
+{
+    /** The provider each thread is waiting to create or to get the instance of. */
+    private static final ConcurrentMap<Thread, ParallelSingletonProvider<?>> WAITING = new ConcurrentHashMap<Thread, ParallelSingletonProvider<?>>();
+
+    private final Key<? extends T> constructorKey;
+
+    private volatile Injector injector = null;
+
+    private volatile ProvisionProfiler profiler = null;
+
+    private volatile T instance = null;
+
+    /** The thread creating the instance, null if the instance is not being created. */
+    private volatile Thread creator = null;
+
+    ParallelSingletonProvider(@Nonnull final Key<? extends T> constructorKey)
+    {
+        this.constructorKey = constructorKey;
+    }
+
+    @Inject
+    void setInjector(final Injector injector)
+    {
+        this.injector = injector;
+    }
+
+    @Inject(optional=true)
+    void setProfiler(final ProvisionProfiler profiler)
+    {
+        this.profiler = profiler;
+    }
+
+    @Inject(optional=true)
+    void setProvisioner(final ParallelProvisioner provisioner)
+    {
+        provisioner.add(this);
+    }
+
+    @Override
+    public T get()
+    {
+        T result = instance;
+        if (result != null) {
+            return result;
+        }
+
+        final Thread thread = Thread.currentThread();
+        WAITING.put(thread, this);
+        try {
+            checkCircularDependency(thread);
+            synchronized (this) {
+                WAITING.remove(thread);
+                result = instance;
+                if (result == null) {
+                    creator = thread;
+                    final ProvisionProfiler.Measurement measurement = profiler == null ? null : profiler.start();
+                    try {
+                        result = injector.getInstance(constructorKey);
+                        instance = result;
+                    }
+                    finally {
+                        creator = null;
+                        if (measurement != null) {
+                            measurement.finish(constructorKey.getTypeLiteral().toString(), result == null);
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            WAITING.remove(thread);
+        }
+        return result;
+    }
+
+    /**
+     * Follows the threads creating singletons and the providers they wait for, starting with this provider.
+     *
+     * @throws IllegalStateException If the chain leads back to the current thread, which would then wait for itself.
+     */
+    private void checkCircularDependency(final Thread thread)
+    {
+        final List<ParallelSingletonProvider<?>> chain = Lists.newArrayList();
+        ParallelSingletonProvider<?> provider = this;
+        while (provider != null && !chain.contains(provider)) {
+            chain.add(provider);
+            final Thread owner = provider.creator;
+            if (owner == null) {
+                return;
+            }
+            if (owner == thread) {
+                final StringBuilder sb = new StringBuilder();
+                for (final ParallelSingletonProvider<?> link : chain) {
+                    sb.append(link.constructorKey.getTypeLiteral()).append(" -> ");
+                }
+                sb.append(constructorKey.getTypeLiteral());
+                throw new IllegalStateException("Circular dependency between parallel singletons: " + sb);
+            }
+            provider = WAITING.get(owner);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ParallelSingleton[" + constructorKey.getTypeLiteral() + "]";
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.lang.reflect.Constructor;
+
+import javax.annotation.Nonnull;
+
+import com.google.inject.Binder;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.google.inject.spi.InjectionPoint;
+
+/**
+ * Binds singletons that are created concurrently when the lifecycle starts instead of one after another while the injector is
+ * created. Parallel provisioning must be enabled with {@link AbstractLifecycleModule#enableParallelProvisioning(int)}; otherwise
+ * the singletons are created on first use.
+ * <pre>
+ *   install(new LifecycleModule().enableParallelProvisioning(8));
+ *   ParallelSingletons.bind(binder(), SearchIndex.class);
+ *   ParallelSingletons.bind(binder(), Key.get(Cache.class), RemoteCache.class);
+ * </pre>
+ * The singletons are created at the beginning of the CONFIGURE stage. A singleton that depends on another parallel singleton waits
+ * for it, but dependencies must not be circular. Their {@link OnStage} methods are registered once all singletons have been created,
+ * and CONFIGURE methods are run right away.
+ * <p>
+ * Guice 3 creates all singletons in the regular singleton scope while holding a single global lock. Dependencies of a parallel
+ * singleton that are regular singletons are therefore still created one at a time, and the implementation classes must not be
+ * annotated with {@link com.google.inject.Singleton}.
+ */
+public final class ParallelSingletons
+{
+    private ParallelSingletons()
+    {
+    }
+
+    /**
+     * Binds a class as a parallel singleton.
+     */
+    public static <T> void bind(@Nonnull final Binder binder, @Nonnull final Class<T> type)
+    {
+        bind(binder, Key.get(type), type);
+    }
+
+    /**
+     * Binds a key to an implementation class that is created as a parallel singleton.
+     */
+    public static <T, S extends T> void bind(@Nonnull final Binder binder, @Nonnull final Key<T> key, @Nonnull final Class<S> implementation)
+    {
+        // Creates new instances with the constructor of the implementation, without any scope.
+        final Key<S> constructorKey = Key.get(implementation, Names.named("parallel-singleton:" + key));
+        binder.bind(constructorKey).toConstructor(constructorOf(implementation));
+
+        binder.bind(key).toProvider(new ParallelSingletonProvider<T>(constructorKey));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> Constructor<S> constructorOf(final Class<S> implementation)
+    {
+        return (Constructor<S>) InjectionPoint.forConstructorOf(implementation).getMember();
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import com.nesscomputing.lifecycle.AbstractLifecycle;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleTimings;
+
+/**
+ * Records how long the lifecycle managed objects took to create, so that slow constructors can be told apart from slow
+ * lifecycle listeners. Enabled with {@link AbstractLifecycleModule#enableProvisionProfiling()}.
+ * <pre>
+ *   Injector injector = Guice.createInjector(new LifecycleModule().enableProvisionProfiling(), ...);
+ *   injector.getInstance(Lifecycle.class).executeTo(LifecycleStage.START_STAGE);
+ *   LOG.info(injector.getInstance(ProvisionProfiler.class).getReport(10));
+ * </pre>
+ * Objects created by {@link ParallelSingletons} bindings and by {@link AbstractLifecycleProvider} subclasses are measured. The
+ * timings include the dependencies created along with an object.
+ */
+@ThreadSafe
+public class ProvisionProfiler
+{
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final LifecycleTimings lifecycleTimings;
+
+    @GuardedBy("this")
+    private final List<ProvisionTiming> provisionTimings = new ArrayList<ProvisionTiming>();
+
+    /**
+     * @param lifecycleTimings Collects the stage and listener timings of the lifecycle for the combined report.
+     */
+    public ProvisionProfiler(@Nonnull final LifecycleTimings lifecycleTimings)
+    {
+        this.lifecycleTimings = lifecycleTimings;
+    }
+
+    @Inject(optional=true)
+    void setLifecycle(final Lifecycle lifecycle)
+    {
+        if (lifecycle instanceof AbstractLifecycle) {
+            ((AbstractLifecycle) lifecycle).addObserver(lifecycleTimings);
+        }
+    }
+
+    /**
+     * Starts measuring the creation of an object on the current thread.
+     */
+    Measurement start()
+    {
+        return new Measurement();
+    }
+
+    synchronized void add(@Nonnull final ProvisionTiming provisionTiming)
+    {
+        provisionTimings.add(provisionTiming);
+    }
+
+    /**
+     * Returns the timings of all measured objects in the order in which they were created.
+     */
+    public synchronized List<ProvisionTiming> getProvisionTimings()
+    {
+        return ImmutableList.copyOf(provisionTimings);
+    }
+
+    /**
+     * Returns the timings of the objects with the longest wall clock time, slowest first.
+     */
+    public List<ProvisionTiming> getSlowestProvisions(final int count)
+    {
+        final List<ProvisionTiming> sorted = new ArrayList<ProvisionTiming>(getProvisionTimings());
+        Collections.sort(sorted, ProvisionTiming.SLOWEST_FIRST);
+        return ImmutableList.copyOf(sorted.subList(0, Math.min(count, sorted.size())));
+    }
+
+    public LifecycleTimings getLifecycleTimings()
+    {
+        return lifecycleTimings;
+    }
+
+    /**
+     * Returns a human readable report of the slowest objects to create followed by the stages and their slowest listeners.
+     *
+     * @param entriesPerSection Number of objects and of listeners per stage to report.
+     */
+    public String getReport(final int entriesPerSection)
+    {
+        final List<ProvisionTiming> timings = getProvisionTimings();
+        long wallNanos = 0;
+        for (final ProvisionTiming timing : timings) {
+            wallNanos += timing.getWallNanos();
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Provisioning: %d objects, %d ms wall%n", timings.size(), TimeUnit.NANOSECONDS.toMillis(wallNanos)));
+        for (final ProvisionTiming timing : getSlowestProvisions(entriesPerSection)) {
+            sb.append(String.format("    %8d ms wall, %s cpu, %s allocated: %s on %s%s%n",
+                                    TimeUnit.NANOSECONDS.toMillis(timing.getWallNanos()),
+                                    timing.getCpuNanos() < 0 ? "n/a" : TimeUnit.NANOSECONDS.toMillis(timing.getCpuNanos()) + " ms",
+                                    timing.getAllocatedBytes() < 0 ? "n/a" : (timing.getAllocatedBytes() >> 10) + " kB",
+                                    timing.getName(),
+                                    timing.getThreadName(),
+                                    timing.isFailed() ? " (failed)" : ""));
+        }
+        sb.append(lifecycleTimings.getReport(entriesPerSection));
+        return sb.toString();
+    }
+
+    private static long currentThreadCpuTime()
+    {
+        try {
+            return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : -1L;
+        }
+        catch (UnsupportedOperationException e) {
+            return -1L;
+        }
+    }
+
+    private static long currentThreadAllocatedBytes()
+    {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            try {
+                if (threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                    return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+            catch (UnsupportedOperationException e) {
+                return -1L;
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * A running measurement on the thread that started it.
+     */
+    final class Measurement
+    {
+        private final long startNanos = System.nanoTime();
+        private final long startCpuNanos = currentThreadCpuTime();
+        private final long startAllocatedBytes = currentThreadAllocatedBytes();
+
+        private Measurement()
+        {
+        }
+
+        /**
+         * Records the measurement. Must be called on the thread that started it.
+         */
+        void finish(@Nonnull final String name, final boolean failed)
+        {
+            final long wallNanos = System.nanoTime() - startNanos;
+            final long endCpuNanos = currentThreadCpuTime();
+            final long endAllocatedBytes = currentThreadAllocatedBytes();
+            add(new ProvisionTiming(name,
+                                    Thread.currentThread().getName(),
+                                    wallNanos,
+                                    startCpuNanos < 0 || endCpuNanos < 0 ? -1L : endCpuNanos - startCpuNanos,
+                                    startAllocatedBytes < 0 || endAllocatedBytes < 0 ? -1L : endAllocatedBytes - startAllocatedBytes,
+                                    failed));
+        }
+    }
+
+    /**
+     * Timing of the creation of a single object.
+     */
+    public static class ProvisionTiming
+    {
+        static final Comparator<ProvisionTiming> SLOWEST_FIRST = new Comparator<ProvisionTiming>() {
+            @Override
+            public int compare(final ProvisionTiming first, final ProvisionTiming second)
+            {
+                return Long.compare(second.wallNanos, first.wallNanos);
+            }
+        };
+
+        private final String name;
+        private final String threadName;
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+        private final boolean failed;
+
+        ProvisionTiming(@Nonnull final String name, @Nonnull final String threadName, final long wallNanos, final long cpuNanos, final long allocatedBytes, final boolean failed)
+        {
+            this.name = name;
+            this.threadName = threadName;
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.failed = failed;
+        }
+
+        /**
+         * Returns the binding or the class of the created object.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getThreadName()
+        {
+            return threadName;
+        }
+
+        public long getWallNanos()
+        {
+            return wallNanos;
+        }
+
+        /**
+         * Returns the CPU time in nanoseconds or -1 if not available.
+         */
+        public long getCpuNanos()
+        {
+            return cpuNanos;
+        }
+
+        /**
+         * Returns the number of bytes allocated on the creating thread or -1 if not available.
+         */
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class TestAsyncLifecycle
+{
+    @Test
+    public void testExecuteToAsync() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final ListenableFuture<LifecycleStage> future = lifecycle.executeToAsync(LifecycleStage.START_STAGE);
+        Assert.assertEquals(LifecycleStage.START_STAGE, future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(LifecycleStage.STOP_STAGE, lifecycle.getNextStage());
+    }
+
+    @Test
+    public void testStagesRunInRequestOrder() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final ListenableFuture<LifecycleStage> first = lifecycle.executeNextAsync();
+        final ListenableFuture<LifecycleStage> second = lifecycle.executeNextAsync();
+        final ListenableFuture<LifecycleStage> third = lifecycle.executeNextAsync();
+
+        Assert.assertEquals(LifecycleStage.CONFIGURE_STAGE, first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(LifecycleStage.START_STAGE, second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(LifecycleStage.STOP_STAGE, third.get(5, TimeUnit.SECONDS));
+
+        try {
+            lifecycle.executeNextAsync().get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testAsyncListener() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final SettableFuture<Void> work = SettableFuture.create();
+        final boolean [] after = new boolean [1];
+
+        lifecycle.addAsyncListener(LifecycleStage.CONFIGURE_STAGE, new AsyncLifecycleListener() {
+            @Override
+            public ListenableFuture<?> onStage(final LifecycleStage lifecycleStage)
+            {
+                return work;
+            }
+        }, LifecycleDependencies.named("async"));
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                after[0] = work.isDone();
+            }
+        }, LifecycleDependencies.NONE.after("async"));
+
+        final ListenableFuture<LifecycleStage> future = lifecycle.executeNextAsync();
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            Assert.fail();
+        }
+        catch (TimeoutException expected) {
+            // The stage waits for the async listener.
+        }
+
+        work.set(null);
+        Assert.assertEquals(LifecycleStage.CONFIGURE_STAGE, future.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(after[0]);
+    }
+
+    @Test
+    public void testFailedAsyncListener() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.addAsyncListener(LifecycleStage.CONFIGURE_STAGE, new AsyncLifecycleListener() {
+            @Override
+            public ListenableFuture<?> onStage(final LifecycleStage lifecycleStage)
+            {
+                return Futures.immediateFailedFuture(new IllegalArgumentException("broken"));
+            }
+        }, LifecycleDependencies.NONE);
+
+        try {
+            lifecycle.executeAsync(LifecycleStage.CONFIGURE_STAGE).get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            Assert.assertEquals("broken", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testAsyncListenersOverlap() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        assertAsyncListenersOverlap(lifecycle);
+    }
+
+    @Test
+    public void testAsyncListenersHoldNoThread() throws Exception
+    {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final DefaultLifecycle lifecycle = new DefaultLifecycle();
+            lifecycle.setExecutor(executor);
+            assertAsyncListenersOverlap(lifecycle);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Adds two asynchronous listeners whose futures only complete once both of them have been called.
+     */
+    private static void assertAsyncListenersOverlap(final DefaultLifecycle lifecycle) throws Exception
+    {
+        final CountDownLatch called = new CountDownLatch(2);
+        final SettableFuture<Void> work = SettableFuture.create();
+
+        for (int i = 0; i < 2; i++) {
+            lifecycle.addAsyncListener(LifecycleStage.CONFIGURE_STAGE, new AsyncLifecycleListener() {
+                @Override
+                public ListenableFuture<?> onStage(final LifecycleStage lifecycleStage)
+                {
+                    called.countDown();
+                    return work;
+                }
+            }, LifecycleDependencies.NONE);
+        }
+
+        final ListenableFuture<LifecycleStage> future = lifecycle.executeNextAsync();
+        Assert.assertTrue(called.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(future.isDone());
+
+        work.set(null);
+        Assert.assertEquals(LifecycleStage.CONFIGURE_STAGE, future.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestConcurrentTransitions
+{
+    private ExecutorService executor = null;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEachStageRunsOnce() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final CountingListener configure = new CountingListener();
+        final CountingListener start = new CountingListener();
+        final CountingListener stop = new CountingListener();
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, configure);
+        lifecycle.addListener(LifecycleStage.START_STAGE, start);
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, stop);
+
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    go.await();
+                    try {
+                        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+                        return true;
+                    }
+                    catch (IllegalStateException ise) {
+                        // Only a thread that starts after the lifecycle has ended fails.
+                        Assert.assertNull(lifecycle.getNextStage());
+                        return false;
+                    }
+                }
+            }));
+        }
+        go.countDown();
+
+        int reached = 0;
+        for (final Future<Boolean> future : futures) {
+            if (future.get(30, TimeUnit.SECONDS)) {
+                reached++;
+            }
+        }
+
+        Assert.assertTrue(reached > 0);
+
+        Assert.assertEquals(1, configure.getCount());
+        Assert.assertEquals(1, start.getCount());
+        Assert.assertEquals(1, stop.getCount());
+        Assert.assertNull(lifecycle.getNextStage());
+    }
+
+    @Test
+    public void testWaitForStageInProgress() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingListener start = new CountingListener();
+
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                entered.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        lifecycle.addListener(LifecycleStage.START_STAGE, start);
+
+        final Future<?> first = executor.submit(new NextStage(lifecycle));
+        Assert.assertTrue(entered.await(30, TimeUnit.SECONDS));
+
+        final NextStage waiter = new NextStage(lifecycle);
+        final Future<?> second = executor.submit(waiter);
+        awaitWaiting(waiter);
+        Assert.assertFalse(second.isDone());
+
+        release.countDown();
+        first.get(30, TimeUnit.SECONDS);
+        second.get(30, TimeUnit.SECONDS);
+
+        // The second caller joined CONFIGURE instead of moving on to START.
+        Assert.assertEquals(0, start.getCount());
+        Assert.assertEquals(LifecycleStage.START_STAGE, lifecycle.getNextStage());
+    }
+
+    @Test
+    public void testWaiterSeesFailure() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                entered.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalArgumentException("broken");
+            }
+        });
+
+        final Future<?> first = executor.submit(new NextStage(lifecycle));
+        Assert.assertTrue(entered.await(30, TimeUnit.SECONDS));
+        final NextStage waiter = new NextStage(lifecycle);
+        final Future<?> second = executor.submit(waiter);
+        awaitWaiting(waiter);
+        release.countDown();
+
+        try {
+            first.get(30, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        try {
+            second.get(30, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof LifecycleStageException);
+            Assert.assertTrue(e.getCause().getCause() instanceof IllegalArgumentException);
+        }
+
+        // A failed stage is not run again.
+        Assert.assertEquals(LifecycleStage.START_STAGE, lifecycle.getNextStage());
+    }
+
+    @Test
+    public void testExecuteToPassedStage()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final CountingListener stop = new CountingListener();
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, stop);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        try {
+            lifecycle.executeTo(LifecycleStage.CONFIGURE_STAGE);
+            Assert.fail();
+        }
+        catch (IllegalStateException ise) {
+            // expected
+        }
+        Assert.assertEquals(LifecycleStage.STOP_STAGE, lifecycle.getNextStage());
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        try {
+            lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+            Assert.fail();
+        }
+        catch (IllegalStateException ise) {
+            // expected
+        }
+        Assert.assertEquals(1, stop.getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTransitionFromListener()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                lifecycle.executeNext();
+            }
+        });
+        lifecycle.executeNext();
+    }
+
+    @Test
+    public void testTransitionFromScheduledListener() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.setExecutor(executor);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                try {
+                    lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+                }
+                catch (RuntimeException e) {
+                    failure.set(e);
+                }
+            }
+        });
+
+        // The listener runs on another thread, but must still not wait for its own stage.
+        executor.submit(new NextStage(lifecycle)).get(30, TimeUnit.SECONDS);
+        Assert.assertTrue(failure.get() instanceof IllegalStateException);
+        Assert.assertEquals(LifecycleStage.START_STAGE, lifecycle.getNextStage());
+    }
+
+    /**
+     * Waits until the thread running a task waits for the stage another thread executes.
+     */
+    private static void awaitWaiting(final NextStage task)
+    {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            final Thread thread = task.thread;
+            if (thread != null && thread.getState() == Thread.State.WAITING) {
+                return;
+            }
+            Thread.yield();
+        }
+        Assert.fail("Task did not wait for the stage in progress");
+    }
+
+    private static class NextStage implements Runnable
+    {
+        private final Lifecycle lifecycle;
+        private volatile Thread thread = null;
+
+        NextStage(final Lifecycle lifecycle)
+        {
+            this.lifecycle = lifecycle;
+        }
+
+        @Override
+        public void run()
+        {
+            thread = Thread.currentThread();
+            lifecycle.executeNext();
+        }
+    }
+
+    private static class CountingListener implements LifecycleListener
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            count.incrementAndGet();
+        }
+
+        int getCount()
+        {
+            return count.get();
+        }
+    }
+}
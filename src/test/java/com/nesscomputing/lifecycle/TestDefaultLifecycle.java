@@ -114,6 +114,49 @@ public class TestDefaultLifecycle
     }
 
 
+    @Test
+    public void testRemoveListener()
+    {
+        final ExtendedLifecycle lifecycle = new DefaultLifecycle(false);
+
+        final CountLifecycleListener removed = new CountLifecycleListener();
+        final CountLifecycleListener kept = new CountLifecycleListener();
+
+        final LifecycleRegistration registration = lifecycle.register(LifecycleStage.STOP_STAGE, removed);
+        lifecycle.register(LifecycleStage.STOP_STAGE, kept);
+        Assert.assertEquals(LifecycleStage.STOP_STAGE, registration.getLifecycleStage());
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        registration.remove();
+        // Removing twice does nothing.
+        registration.remove();
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+
+        Assert.assertEquals(0, removed.getCount());
+        Assert.assertEquals(1, kept.getCount());
+    }
+
+    @Test
+    public void testRemoveManyListeners()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle(false);
+        final CountLifecycleListener countListener = new CountLifecycleListener();
+
+        final LifecycleRegistration [] registrations = new LifecycleRegistration [10000];
+        for (int i = 0; i < registrations.length; i++) {
+            registrations[i] = lifecycle.register(LifecycleStage.STOP_STAGE, countListener);
+        }
+        for (int i = 0; i < registrations.length - 1; i++) {
+            registrations[i].remove();
+        }
+
+        // The one remaining listener.
+        Assert.assertEquals(1, lifecycle.getListenerCount(LifecycleStage.STOP_STAGE));
+
+        lifecycle.execute(LifecycleStage.STOP_STAGE);
+        Assert.assertEquals(1, countListener.getCount());
+    }
+
     private static class TestLifecycleListener implements LifecycleListener
     {
         private LifecycleStage lastStageSeen = null;
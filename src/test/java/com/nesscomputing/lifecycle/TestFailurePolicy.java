@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestFailurePolicy
+{
+    private final List<String> invoked = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void testStopIsBestEffort()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final IllegalStateException first = new IllegalStateException("first");
+        final IllegalStateException second = new IllegalStateException("second");
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new RecordingListener("a", null));
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new RecordingListener("b", first));
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new RecordingListener("c", second));
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new RecordingListener("d", null));
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        try {
+            lifecycle.executeNext();
+            Assert.fail();
+        }
+        catch (LifecycleStageException lse) {
+            Assert.assertEquals(LifecycleStage.STOP_STAGE, lse.getLifecycleStage());
+            // STOP runs the listeners in reverse order.
+            Assert.assertSame(second, lse.getCause());
+            Assert.assertEquals(1, lse.getSuppressed().length);
+            Assert.assertSame(first, lse.getSuppressed()[0]);
+        }
+        Assert.assertEquals(4, invoked.size());
+    }
+
+    @Test
+    public void testStartIsFailFast()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final IllegalStateException failure = new IllegalStateException();
+        lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("a", failure));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("b", null));
+
+        try {
+            lifecycle.executeTo(LifecycleStage.START_STAGE);
+            Assert.fail();
+        }
+        catch (IllegalStateException ise) {
+            Assert.assertSame(failure, ise);
+        }
+        Assert.assertEquals(Collections.singletonList("a"), invoked);
+    }
+
+    @Test
+    public void testFailFastStop()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.setFailurePolicy(LifecycleStage.STOP_STAGE, FailurePolicy.FAIL_FAST);
+        final IllegalStateException failure = new IllegalStateException();
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new RecordingListener("a", null));
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new RecordingListener("b", failure));
+
+        try {
+            lifecycle.execute(LifecycleStage.STOP_STAGE);
+            Assert.fail();
+        }
+        catch (IllegalStateException ise) {
+            Assert.assertSame(failure, ise);
+        }
+        Assert.assertEquals(Collections.singletonList("b"), invoked);
+    }
+
+    @Test
+    public void testBestEffortWithExecutor()
+    {
+        final ExecutorService executor = LifecycleExecutors.newBoundedExecutor(2);
+        try {
+            final DefaultLifecycle lifecycle = new DefaultLifecycle();
+            lifecycle.setExecutor(executor);
+            lifecycle.setFailurePolicy(LifecycleStage.START_STAGE, FailurePolicy.BEST_EFFORT);
+
+            final IllegalStateException failure = new IllegalStateException();
+            lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("database", failure), LifecycleDependencies.named("database"));
+            lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("http", null), LifecycleDependencies.named("http").after("database"));
+
+            try {
+                lifecycle.execute(LifecycleStage.START_STAGE);
+                Assert.fail();
+            }
+            catch (LifecycleStageException lse) {
+                Assert.assertEquals(Collections.<Throwable>singletonList(failure), lse.getFailures());
+            }
+            Assert.assertTrue(invoked.contains("http"));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class RecordingListener implements LifecycleListener
+    {
+        private final String name;
+        private final RuntimeException failure;
+
+        RecordingListener(final String name, final RuntimeException failure)
+        {
+            this.name = name;
+            this.failure = failure;
+        }
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            invoked.add(name);
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
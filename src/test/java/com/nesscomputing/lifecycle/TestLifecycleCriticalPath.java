@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.lifecycle.LifecycleCriticalPath.CriticalPath;
+import com.nesscomputing.lifecycle.LifecycleCriticalPath.Step;
+
+public class TestLifecycleCriticalPath
+{
+    private ExecutorService executor = null;
+
+    @Before
+    public void setUp()
+    {
+        executor = LifecycleExecutors.newBoundedExecutor(4);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testParallel()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.setExecutor(executor);
+        final LifecycleCriticalPath criticalPath = new LifecycleCriticalPath(false);
+        lifecycle.addObserver(criticalPath);
+
+        // Cache and metrics only finish after database started, and database only finishes after both of them were recorded.
+        final CountDownLatch databaseStarted = new CountDownLatch(1);
+        final CountDownLatch cacheFinished = new CountDownLatch(1);
+        final CountDownLatch metricsFinished = new CountDownLatch(1);
+        lifecycle.addObserver(new AbstractLifecycleObserver() {
+            @Override
+            public void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, final Throwable failure)
+            {
+                if ("cache".equals(listenerName)) {
+                    cacheFinished.countDown();
+                }
+                else if ("metrics".equals(listenerName)) {
+                    metricsFinished.countDown();
+                }
+            }
+        });
+
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(databaseStarted, cacheFinished, metricsFinished), LifecycleDependencies.named("database"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(null, databaseStarted), LifecycleDependencies.named("cache"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(null), LifecycleDependencies.named("http").after("database", "cache"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(null, databaseStarted), LifecycleDependencies.named("metrics"));
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        final CriticalPath path = criticalPath.getCriticalPath(LifecycleStage.START_STAGE);
+        Assert.assertNotNull(path);
+        Assert.assertEquals(Arrays.asList("database", "http"), namesOf(path));
+        Assert.assertFalse(path.getSteps().get(0).isDependency());
+        Assert.assertTrue(path.getSteps().get(1).isDependency());
+        Assert.assertEquals(4, path.getListenerCount());
+        Assert.assertTrue(path.getPathNanos() <= path.getWallNanos());
+
+        final String json = criticalPath.getJsonReport();
+        Assert.assertTrue(json, json.startsWith("[{\"stage\":\"configure\""));
+        Assert.assertTrue(json, json.contains("{\"listener\":\"http\""));
+        Assert.assertTrue(criticalPath.getReport(), criticalPath.getReport().contains("(dependency): http"));
+    }
+
+    @Test
+    public void testSequential()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final LifecycleCriticalPath criticalPath = new LifecycleCriticalPath(false);
+        lifecycle.addObserver(criticalPath);
+
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(null), LifecycleDependencies.named("first"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(null), LifecycleDependencies.named("second"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(null), LifecycleDependencies.named("third").after("first"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LatchedListener(null), LifecycleDependencies.named("fourth"));
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        // Third also waited for second, but the dependency it declared is reported. Fourth has no dependencies, so it waited
+        // for the listener that ran before it.
+        final CriticalPath path = criticalPath.getCriticalPath(LifecycleStage.START_STAGE);
+        Assert.assertEquals(Arrays.asList("first", "third", "fourth"), namesOf(path));
+        Assert.assertFalse(path.getSteps().get(0).isDependency());
+        Assert.assertTrue(path.getSteps().get(1).isDependency());
+        Assert.assertFalse(path.getSteps().get(2).isDependency());
+        Assert.assertEquals(4, path.getListenerCount());
+        Assert.assertNull(criticalPath.getCriticalPath(LifecycleStage.STOP_STAGE));
+    }
+
+    private static List<String> namesOf(final CriticalPath path)
+    {
+        final List<String> names = new ArrayList<String>();
+        for (final Step step : path.getSteps()) {
+            names.add(step.getListenerName());
+        }
+        return names;
+    }
+
+    /**
+     * Counts down a latch when it starts and then waits for other latches. It always takes some time on the clock, so listeners
+     * that run one after another never end at the same time.
+     */
+    private static class LatchedListener implements LifecycleListener
+    {
+        private final CountDownLatch started;
+        private final CountDownLatch [] awaited;
+
+        LatchedListener(@Nullable final CountDownLatch started, final CountDownLatch ... awaited)
+        {
+            this.started = started;
+            this.awaited = awaited;
+        }
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            final long startNanos = System.nanoTime();
+            if (started != null) {
+                started.countDown();
+            }
+            try {
+                for (final CountDownLatch latch : awaited) {
+                    Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            while (System.nanoTime() == startNanos) {
+                Thread.yield();
+            }
+        }
+    }
+}
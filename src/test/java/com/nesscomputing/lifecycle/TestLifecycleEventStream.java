@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.lifecycle.LifecycleEvent.Type;
+
+public class TestLifecycleEventStream
+{
+    @Test
+    public void testEvents()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final LifecycleEventStream stream = new LifecycleEventStream(64);
+        lifecycle.addObserver(stream);
+        final LifecycleEventStream.Cursor cursor = stream.newCursor();
+
+        final IllegalStateException failure = new IllegalStateException();
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                throw failure;
+            }
+        }, LifecycleDependencies.named("failing"));
+
+        lifecycle.executeNext();
+        try {
+            lifecycle.executeNext();
+            Assert.fail();
+        }
+        catch (IllegalStateException ise) {
+            Assert.assertSame(failure, ise);
+        }
+
+        final List<LifecycleEvent> events = new ArrayList<LifecycleEvent>();
+        cursor.drainTo(events);
+        Assert.assertNull(cursor.poll());
+
+        final List<Type> types = new ArrayList<Type>();
+        for (LifecycleEvent event : events) {
+            types.add(event.getType());
+        }
+
+        // CONFIGURE has no listeners.
+        Assert.assertEquals(Type.STAGE_STARTING, types.get(0));
+        Assert.assertEquals(Type.STAGE_FINISHED, types.get(1));
+        Assert.assertTrue(types.contains(Type.LISTENER_FAILED));
+        Assert.assertEquals(Type.STAGE_FAILED, types.get(types.size() - 1));
+
+        final LifecycleEvent failed = events.get(types.indexOf(Type.LISTENER_FAILED));
+        Assert.assertEquals(LifecycleStage.START_STAGE, failed.getLifecycleStage());
+        Assert.assertEquals("failing", failed.getListenerName());
+        Assert.assertSame(failure, failed.getFailure());
+        Assert.assertTrue(failed.getElapsedNanos() >= 0);
+
+        for (int i = 0; i < events.size(); i++) {
+            Assert.assertEquals(i, events.get(i).getSequence());
+        }
+    }
+
+    @Test
+    public void testSlowConsumer()
+    {
+        final LifecycleEventStream stream = new LifecycleEventStream(5);
+        Assert.assertEquals(8, stream.getCapacity());
+
+        final LifecycleEventStream.Cursor cursor = stream.newCursor();
+        for (int i = 0; i < 20; i++) {
+            stream.onListenerStarting(LifecycleStage.START_STAGE, "listener-" + i);
+        }
+
+        final List<LifecycleEvent> events = new ArrayList<LifecycleEvent>();
+        Assert.assertEquals(8, cursor.drainTo(events));
+        Assert.assertEquals(12, cursor.getDropped());
+        Assert.assertEquals("listener-12", events.get(0).getListenerName());
+        Assert.assertEquals("listener-19", events.get(7).getListenerName());
+        Assert.assertEquals(20, cursor.getPosition());
+
+        Assert.assertEquals(Type.LISTENER_STARTING, stream.newCursorFromOldest().poll().getType());
+        Assert.assertNull(stream.newCursor().poll());
+    }
+
+    @Test
+    public void testConcurrentPublishers() throws Exception
+    {
+        final LifecycleEventStream stream = new LifecycleEventStream(8);
+        final LifecycleEventStream.Cursor cursor = stream.newCursor();
+        final int publishers = 4;
+        final int eventsPerPublisher = 20000;
+
+        final CountDownLatch go = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(publishers);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < publishers; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        go.await();
+                        for (int j = 0; j < eventsPerPublisher; j++) {
+                            stream.onListenerStarting(LifecycleStage.START_STAGE, "listener");
+                        }
+                        return null;
+                    }
+                }));
+            }
+            go.countDown();
+
+            // Read while the buffer wraps around many times, the cursor must never get stuck behind an overwritten slot.
+            long received = 0;
+            long last = -1;
+            while (cursor.getPosition() < publishers * eventsPerPublisher) {
+                final boolean published = allDone(futures);
+                final LifecycleEvent event = cursor.poll();
+                if (event != null) {
+                    Assert.assertTrue(event.getSequence() > last);
+                    last = event.getSequence();
+                    received++;
+                }
+                else {
+                    Assert.assertFalse("cursor stuck at " + cursor.getPosition(), published);
+                }
+            }
+
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            Assert.assertEquals(publishers * eventsPerPublisher, received + cursor.getDropped());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean allDone(final List<Future<?>> futures)
+    {
+        for (final Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Throwables;
+
+public class TestLifecycleExecutors
+{
+    private static final int LISTENERS = 50;
+
+    @Test
+    public void testAllListenersBlockConcurrently()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.useVirtualThreads(LISTENERS);
+
+        // Only passes if all listeners of the stage are blocked at the same time.
+        final CyclicBarrier barrier = new CyclicBarrier(LISTENERS);
+        final AtomicInteger finished = new AtomicInteger();
+        for (int i = 0; i < LISTENERS; i++) {
+            lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+                @Override
+                public void onStage(final LifecycleStage lifecycleStage)
+                {
+                    try {
+                        barrier.await(5, TimeUnit.SECONDS);
+                        finished.incrementAndGet();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw Throwables.propagate(e);
+                    }
+                    catch (BrokenBarrierException e) {
+                        throw Throwables.propagate(e);
+                    }
+                    catch (TimeoutException e) {
+                        throw Throwables.propagate(e);
+                    }
+                }
+            });
+        }
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(LISTENERS, finished.get());
+    }
+
+    @Test
+    public void testBoundedExecutor() throws Exception
+    {
+        final ExecutorService executor = LifecycleExecutors.newBoundedExecutor(2);
+        try {
+            final AtomicInteger count = new AtomicInteger();
+            for (int i = 0; i < 10; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        count.incrementAndGet();
+                    }
+                });
+            }
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertEquals(10, count.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoThreads()
+    {
+        LifecycleExecutors.newVirtualThreadExecutor(0);
+    }
+}
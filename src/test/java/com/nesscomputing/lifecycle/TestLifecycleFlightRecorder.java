@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestLifecycleFlightRecorder
+{
+    @Test
+    public void testWithoutRecording()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.addObserver(new LifecycleFlightRecorder());
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+            }
+        });
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+    }
+
+    /**
+     * The JFR API is not part of the compile target, so the recording is controlled reflectively.
+     */
+    @Test
+    public void testRecording() throws Exception
+    {
+        Assume.assumeTrue(LifecycleFlightRecorder.isAvailable());
+
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.addObserver(new LifecycleFlightRecorder());
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+            }
+        }, LifecycleDependencies.named("server"));
+
+        final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        final Object recording = recordingClass.newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, LifecycleFlightRecorder.STAGE_EVENT_NAME);
+        recordingClass.getMethod("enable", String.class).invoke(recording, LifecycleFlightRecorder.LISTENER_EVENT_NAME);
+        recordingClass.getMethod("start").invoke(recording);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        recordingClass.getMethod("stop").invoke(recording);
+        final File file = File.createTempFile("lifecycle", ".jfr");
+        try {
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file.toPath());
+            recordingClass.getMethod("close").invoke(recording);
+
+            final List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, file.toPath());
+            final List<String> stages = new ArrayList<String>();
+            final List<String> listeners = new ArrayList<String>();
+            for (Object event : events) {
+                final Object eventType = event.getClass().getMethod("getEventType").invoke(event);
+                final String name = (String) eventType.getClass().getMethod("getName").invoke(eventType);
+                final String stage = (String) event.getClass().getMethod("getString", String.class).invoke(event, "stage");
+                if (LifecycleFlightRecorder.STAGE_EVENT_NAME.equals(name)) {
+                    stages.add(stage);
+                }
+                else if (LifecycleFlightRecorder.LISTENER_EVENT_NAME.equals(name)) {
+                    listeners.add(stage + ":" + event.getClass().getMethod("getString", String.class).invoke(event, "listener"));
+                }
+            }
+
+            Assert.assertTrue(stages.toString(), stages.contains("configure"));
+            Assert.assertTrue(stages.toString(), stages.contains("start"));
+            Assert.assertTrue(listeners.toString(), listeners.contains("start:server"));
+        }
+        finally {
+            Assert.assertTrue(file.delete());
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLifecycleProfile
+{
+    private final List<String> invoked = Collections.synchronizedList(new ArrayList<String>());
+
+    private File file;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("lifecycle", ".profile");
+        Assert.assertTrue(file.delete());
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        file.delete();
+    }
+
+    private DefaultLifecycle createLifecycle(final LifecycleProfile profile)
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.setExecutor(executor);
+        lifecycle.setProfile(profile);
+        lifecycle.addListener(LifecycleStage.START_STAGE, new SleepingListener("short", 0L), LifecycleDependencies.named("short"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new SleepingListener("medium", 20L), LifecycleDependencies.named("medium"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new SleepingListener("long", 60L), LifecycleDependencies.named("long"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new SleepingListener("after", 0L), LifecycleDependencies.named("after").after("short"));
+        return lifecycle;
+    }
+
+    @Test
+    public void testRecordsDurations()
+    {
+        createLifecycle(new LifecycleProfile(file)).executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(Arrays.asList("short", "medium", "long", "after"), invoked);
+        Assert.assertTrue(file.exists());
+
+        final LifecycleProfile profile = new LifecycleProfile(file);
+        Assert.assertTrue(profile.getExpectedMillis(LifecycleStage.START_STAGE, "long") >= 60L);
+        Assert.assertTrue(profile.getExpectedMillis(LifecycleStage.START_STAGE, "medium") >= 20L);
+        Assert.assertTrue(profile.getExpectedMillis(LifecycleStage.START_STAGE, "short") >= 0L);
+        Assert.assertEquals(-1L, profile.getExpectedMillis(LifecycleStage.START_STAGE, "unknown"));
+    }
+
+    @Test
+    public void testLongestFirst()
+    {
+        // Use fixed durations, the measured ones depend on the load of the machine.
+        final LifecycleProfile previous = new LifecycleProfile(file);
+        previous.onStageStarting(LifecycleStage.START_STAGE);
+        finished(previous, "short", 0L);
+        finished(previous, "medium", 20L);
+        finished(previous, "long", 60L);
+        finished(previous, "after", 0L);
+        previous.onStageFinished(LifecycleStage.START_STAGE, 0L, 0L, null);
+        previous.save();
+
+        // The next run starts the listeners that took longest first, but still honors dependencies.
+        createLifecycle(new LifecycleProfile(file)).executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(Arrays.asList("long", "medium", "short", "after"), invoked);
+    }
+
+    @Test
+    public void testNoProfile()
+    {
+        createLifecycle(null).executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(Arrays.asList("short", "medium", "long", "after"), invoked);
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testFailedStageKeepsProfile()
+    {
+        final LifecycleProfile profile = new LifecycleProfile(file);
+        createLifecycle(profile).executeTo(LifecycleStage.START_STAGE);
+        final long expected = profile.getExpectedMillis(LifecycleStage.START_STAGE, "long");
+
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.setExecutor(executor);
+        lifecycle.setProfile(profile);
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                throw new IllegalStateException();
+            }
+        });
+        try {
+            lifecycle.executeTo(LifecycleStage.START_STAGE);
+            Assert.fail();
+        }
+        catch (LifecycleStageException lse) {
+            Assert.assertTrue(lse.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(expected, profile.getExpectedMillis(LifecycleStage.START_STAGE, "long"));
+        Assert.assertEquals(expected, new LifecycleProfile(file).getExpectedMillis(LifecycleStage.START_STAGE, "long"));
+    }
+
+    @Test
+    public void testRepeatableStagesSavedWithSequence()
+    {
+        final LifecycleStage reloadStage = new LifecycleStage("reload");
+        final LifecycleDriver driver = new LifecycleDriver(Arrays.asList(LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE),
+                                                           Collections.singletonList(RepeatableStage.of(reloadStage).after(LifecycleStage.START_STAGE)));
+        final AbstractLifecycle lifecycle = new AbstractLifecycle(driver, false) {
+            @Override
+            public void join() throws InterruptedException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final LifecycleProfile profile = new LifecycleProfile(file);
+        lifecycle.setProfile(profile);
+        lifecycle.addListener(reloadStage, new SleepingListener("reload", 0L), LifecycleDependencies.named("reload"));
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        Assert.assertTrue(file.exists());
+        Assert.assertTrue(file.delete());
+
+        lifecycle.execute(reloadStage);
+        lifecycle.execute(reloadStage);
+        Assert.assertFalse(file.exists());
+        Assert.assertTrue(profile.getExpectedMillis(reloadStage, "reload") >= 0L);
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        Assert.assertTrue(file.exists());
+        Assert.assertTrue(new LifecycleProfile(file).getExpectedMillis(reloadStage, "reload") >= 0L);
+    }
+
+    @Test
+    public void testUnchangedProfileNotSaved()
+    {
+        final LifecycleProfile profile = new LifecycleProfile(file);
+        profile.saveIfChanged();
+        Assert.assertFalse(file.exists());
+
+        profile.onStageStarting(LifecycleStage.START_STAGE);
+        profile.onListenerFinished(LifecycleStage.START_STAGE, "listener", TimeUnit.MILLISECONDS.toNanos(5L), 0L, null);
+        profile.onStageFinished(LifecycleStage.START_STAGE, 0L, 0L, null);
+        profile.saveIfChanged();
+        Assert.assertTrue(file.exists());
+        Assert.assertTrue(file.delete());
+
+        profile.onStageStarting(LifecycleStage.START_STAGE);
+        profile.onListenerFinished(LifecycleStage.START_STAGE, "listener", TimeUnit.MILLISECONDS.toNanos(5L), 0L, null);
+        profile.onStageFinished(LifecycleStage.START_STAGE, 0L, 0L, null);
+        profile.saveIfChanged();
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testFailedSaveIsRetried() throws IOException
+    {
+        final File directory = new File(file.getPath() + ".dir");
+        final File nested = new File(directory, "lifecycle.profile");
+        try {
+            final LifecycleProfile profile = new LifecycleProfile(nested);
+            profile.onStageStarting(LifecycleStage.START_STAGE);
+            finished(profile, "listener", 5L);
+            profile.onStageFinished(LifecycleStage.START_STAGE, 0L, 0L, null);
+
+            // The directory does not exist, so writing fails.
+            profile.saveIfChanged();
+            Assert.assertFalse(nested.exists());
+
+            Assert.assertTrue(directory.mkdir());
+            profile.saveIfChanged();
+            Assert.assertEquals(5L, new LifecycleProfile(nested).getExpectedMillis(LifecycleStage.START_STAGE, "listener"));
+            Assert.assertEquals(1, directory.list().length);
+        }
+        finally {
+            nested.delete();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testConcurrentSaves() throws Exception
+    {
+        final LifecycleProfile profile = new LifecycleProfile(file);
+        profile.onStageStarting(LifecycleStage.START_STAGE);
+        finished(profile, "listener", 5L);
+        profile.onStageFinished(LifecycleStage.START_STAGE, 0L, 0L, null);
+
+        final ExecutorService savers = Executors.newFixedThreadPool(4);
+        try {
+            final CountDownLatch go = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(savers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        go.await();
+                        for (int j = 0; j < 25; j++) {
+                            profile.save();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            go.countDown();
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            savers.shutdownNow();
+        }
+
+        Assert.assertEquals(5L, new LifecycleProfile(file).getExpectedMillis(LifecycleStage.START_STAGE, "listener"));
+        final String [] leftovers = file.getAbsoluteFile().getParentFile().list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name)
+            {
+                return name.startsWith(file.getName()) && name.endsWith(".tmp");
+            }
+        });
+        Assert.assertEquals(0, leftovers.length);
+    }
+
+    @Test
+    public void testDuplicateNames()
+    {
+        final LifecycleProfile profile = new LifecycleProfile(file);
+        profile.onStageStarting(LifecycleStage.START_STAGE);
+        profile.onListenerFinished(LifecycleStage.START_STAGE, "same", TimeUnit.MILLISECONDS.toNanos(70L), 0L, null);
+        profile.onListenerFinished(LifecycleStage.START_STAGE, "same", TimeUnit.MILLISECONDS.toNanos(10L), 0L, null);
+        profile.onStageFinished(LifecycleStage.START_STAGE, 0L, 0L, null);
+
+        // The shorter listener must not hide the longer one.
+        Assert.assertEquals(70L, profile.getExpectedMillis(LifecycleStage.START_STAGE, "same"));
+    }
+
+    @Test
+    public void testSeparatorInNames()
+    {
+        final LifecycleStage stage = new LifecycleStage("warm/up");
+        final LifecycleProfile profile = new LifecycleProfile(file);
+        profile.onStageStarting(stage);
+        profile.onListenerFinished(stage, "cache/loader", TimeUnit.MILLISECONDS.toNanos(30L), 0L, null);
+        profile.onStageFinished(stage, 0L, 0L, null);
+        profile.save();
+
+        final LifecycleProfile loaded = new LifecycleProfile(file);
+        Assert.assertEquals(30L, loaded.getExpectedMillis(stage, "cache/loader"));
+        Assert.assertEquals(-1L, loaded.getExpectedMillis(new LifecycleStage("warm"), "up/cache/loader"));
+    }
+
+    private static void finished(final LifecycleProfile profile, final String listenerName, final long millis)
+    {
+        profile.onListenerFinished(LifecycleStage.START_STAGE, listenerName, TimeUnit.MILLISECONDS.toNanos(millis), 0L, null);
+    }
+
+    /**
+     * Takes at least the given time according to {@link System#nanoTime()}, which the profile uses as well.
+     */
+    private class SleepingListener implements LifecycleListener
+    {
+        private final String name;
+        private final long millis;
+
+        SleepingListener(final String name, final long millis)
+        {
+            this.name = name;
+            this.millis = millis;
+        }
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            invoked.add(name);
+            final long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            for (long remaining = endNanos - System.nanoTime(); remaining > 0; remaining = endNanos - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+}
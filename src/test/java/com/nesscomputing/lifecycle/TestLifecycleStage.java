@@ -51,4 +51,52 @@ public class TestLifecycleStage
 
         Assert.assertThat(l1, is(not(l2)));
     }
+
+    @Test
+    public void testInterning()
+    {
+        Assert.assertSame(LifecycleStage.START_STAGE, LifecycleStage.of("start"));
+        Assert.assertSame(LifecycleStage.of("Flush"), LifecycleStage.of("flush"));
+
+        final LifecycleStage constructed = new LifecycleStage("flush");
+        Assert.assertEquals(LifecycleStage.of("flush"), constructed);
+        Assert.assertEquals(LifecycleStage.of("flush").hashCode(), constructed.hashCode());
+        Assert.assertEquals(LifecycleStage.of("flush").getOrdinal(), constructed.getOrdinal());
+    }
+
+    @Test
+    public void testOrdinals()
+    {
+        final LifecycleStage rotate = LifecycleStage.of("rotate-" + System.nanoTime());
+        Assert.assertTrue(rotate.getOrdinal() > LifecycleStage.STOP_STAGE.getOrdinal());
+        Assert.assertThat(rotate.getOrdinal(), is(not(LifecycleStage.of("other-" + System.nanoTime()).getOrdinal())));
+    }
+
+    @Test
+    public void testRepeatedCustomStage()
+    {
+        final LifecycleStage flush = new LifecycleStage("flush");
+        final LifecycleDriver driver = new LifecycleDriver(LifecycleStage.START_STAGE, flush, LifecycleStage.STOP_STAGE);
+        final AbstractLifecycle lifecycle = new AbstractLifecycle(driver, false) {
+            @Override
+            public void join() throws InterruptedException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final int [] count = new int [1];
+        lifecycle.addListener(LifecycleStage.of("FLUSH"), new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                count[0]++;
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            lifecycle.execute(flush);
+        }
+        Assert.assertEquals(10, count[0]);
+    }
 }
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.lifecycle.LifecycleTimings.StageTiming;
+
+public class TestLifecycleTimeouts
+{
+    /** Long enough for the listeners that do not block to finish in time, even on a loaded machine. */
+    private static final long TIMEOUT_MILLIS = 500L;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> invoked = new CopyOnWriteArrayList<String>();
+
+    private DefaultLifecycle lifecycle = null;
+    private LifecycleTimings timings = null;
+
+    @Before
+    public void setUp()
+    {
+        lifecycle = new DefaultLifecycle();
+        timings = new LifecycleTimings();
+        lifecycle.addObserver(timings);
+    }
+
+    @After
+    public void tearDown()
+    {
+        release.countDown();
+    }
+
+    @Test
+    public void testUntimedStageRunsOnCallingThread()
+    {
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean sameThread = new AtomicBoolean();
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                sameThread.set(Thread.currentThread() == caller);
+            }
+        });
+        lifecycle.executeNext();
+        Assert.assertTrue(sameThread.get());
+    }
+
+    @Test
+    public void testListenerTimeoutContinues()
+    {
+        lifecycle.setListenerTimeout(LifecycleStage.CONFIGURE_STAGE, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new BlockingListener("hanging"), LifecycleDependencies.named("hanging"));
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new RecordingListener("next"), LifecycleDependencies.named("next").after("hanging"));
+
+        lifecycle.executeNext();
+
+        Assert.assertTrue(invoked.contains("next"));
+        final StageTiming stageTiming = timings.getStageTiming(LifecycleStage.CONFIGURE_STAGE);
+        Assert.assertEquals(1, stageTiming.getTimedOutListeners().size());
+        Assert.assertEquals("hanging", stageTiming.getTimedOutListeners().get(0));
+        Assert.assertFalse(stageTiming.isFailed());
+        Assert.assertTrue(timings.getReport(5).contains("timed out: hanging"));
+    }
+
+    @Test
+    public void testListenerTimeoutFails()
+    {
+        lifecycle.setListenerTimeout(LifecycleStage.CONFIGURE_STAGE, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        lifecycle.setTimeoutPolicy(LifecycleStage.CONFIGURE_STAGE, TimeoutPolicy.FAIL);
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new BlockingListener("hanging"));
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new RecordingListener("next"));
+
+        try {
+            lifecycle.executeNext();
+            Assert.fail();
+        }
+        catch (LifecycleStageException e) {
+            Assert.assertEquals(LifecycleStage.CONFIGURE_STAGE, e.getLifecycleStage());
+            Assert.assertTrue(e.getFailures().get(0) instanceof TimeoutException);
+        }
+        Assert.assertFalse(invoked.contains("next"));
+        Assert.assertTrue(timings.getStageTiming(LifecycleStage.CONFIGURE_STAGE).isFailed());
+    }
+
+    @Test
+    public void testListenerTimeoutInterrupts() throws Exception
+    {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        lifecycle.setListenerTimeout(LifecycleStage.CONFIGURE_STAGE, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        lifecycle.setTimeoutPolicy(LifecycleStage.CONFIGURE_STAGE, TimeoutPolicy.INTERRUPT);
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+
+        lifecycle.executeNext();
+        Assert.assertTrue(interrupted.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStageDeadlineSkipsListeners()
+    {
+        lifecycle.setStageDeadline(LifecycleStage.CONFIGURE_STAGE, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new BlockingListener("hanging"), LifecycleDependencies.named("hanging"));
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new RecordingListener("skipped"), LifecycleDependencies.named("skipped"));
+
+        final long start = System.nanoTime();
+        lifecycle.executeNext();
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+
+        Assert.assertFalse(invoked.contains("skipped"));
+        final StageTiming stageTiming = timings.getStageTiming(LifecycleStage.CONFIGURE_STAGE);
+        Assert.assertEquals(1, stageTiming.getTimedOutListeners().size());
+        Assert.assertEquals(1, stageTiming.getSkippedListeners().size());
+        Assert.assertEquals("skipped", stageTiming.getSkippedListeners().get(0));
+
+        // The next stage is not affected.
+        lifecycle.executeNext();
+        Assert.assertEquals(LifecycleStage.STOP_STAGE, lifecycle.getNextStage());
+    }
+
+    @Test
+    public void testStageDeadlineWithExecutor()
+    {
+        lifecycle.setExecutor(Executors.newCachedThreadPool());
+        lifecycle.setStageDeadline(LifecycleStage.CONFIGURE_STAGE, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        lifecycle.setTimeoutPolicy(LifecycleStage.CONFIGURE_STAGE, TimeoutPolicy.FAIL);
+        // The hanging listener only starts once the fast one is done, so the fast one never races the deadline.
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new RecordingListener("fast"), LifecycleDependencies.named("fast"));
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new BlockingListener("hanging"), LifecycleDependencies.named("hanging").after("fast"));
+
+        try {
+            lifecycle.executeNext();
+            Assert.fail();
+        }
+        catch (LifecycleStageException e) {
+            Assert.assertTrue(e.getFailures().get(0) instanceof TimeoutException);
+        }
+        Assert.assertTrue(invoked.contains("fast"));
+    }
+
+    @Test
+    public void testFailureWithTimeoutIsRethrown()
+    {
+        lifecycle.setListenerTimeout(LifecycleStage.CONFIGURE_STAGE, 5, TimeUnit.SECONDS);
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                throw new IllegalStateException("broken");
+            }
+        });
+
+        try {
+            lifecycle.executeNext();
+            Assert.fail();
+        }
+        catch (IllegalStateException e) {
+            Assert.assertEquals("broken", e.getMessage());
+        }
+    }
+
+    private class RecordingListener implements LifecycleListener
+    {
+        private final String name;
+
+        RecordingListener(final String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            invoked.add(name);
+        }
+    }
+
+    private class BlockingListener extends RecordingListener
+    {
+        BlockingListener(final String name)
+        {
+            super(name);
+        }
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            super.onStage(lifecycleStage);
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
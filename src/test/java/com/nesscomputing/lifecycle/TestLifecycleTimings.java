@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.nesscomputing.lifecycle.LifecycleTimings.ListenerTiming;
+import com.nesscomputing.lifecycle.LifecycleTimings.StageTiming;
+
+public class TestLifecycleTimings
+{
+    @Test
+    public void testTimings()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final LifecycleTimings timings = new LifecycleTimings();
+        lifecycle.addObserver(timings);
+
+        // The fast listener runs first, the slow one then takes at least 50ms and longer than the fast one, however long that took.
+        final AtomicLong fastNanos = new AtomicLong();
+        lifecycle.addObserver(new AbstractLifecycleObserver() {
+            @Override
+            public void onListenerFinished(final LifecycleStage lifecycleStage, final String listenerName, final long wallNanos, final long cpuNanos, final Throwable failure)
+            {
+                if ("fast".equals(listenerName)) {
+                    fastNanos.set(wallNanos);
+                }
+            }
+        });
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+            }
+        }, LifecycleDependencies.named("fast"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                final long endNanos = System.nanoTime() + Math.max(TimeUnit.MILLISECONDS.toNanos(50), fastNanos.get() + 1L);
+                for (long remaining = endNanos - System.nanoTime(); remaining > 0; remaining = endNanos - System.nanoTime()) {
+                    LockSupport.parkNanos(remaining);
+                }
+            }
+        }, LifecycleDependencies.named("slow").after("fast"));
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        final List<StageTiming> stageTimings = timings.getStageTimings();
+        Assert.assertEquals(2, stageTimings.size());
+        Assert.assertEquals(LifecycleStage.CONFIGURE_STAGE, stageTimings.get(0).getLifecycleStage());
+        Assert.assertEquals(LifecycleStage.START_STAGE, stageTimings.get(1).getLifecycleStage());
+
+        final StageTiming start = timings.getStageTiming(LifecycleStage.START_STAGE);
+        Assert.assertNotNull(start);
+        Assert.assertFalse(start.isFailed());
+        Assert.assertTrue(start.getWallNanos() >= 50000000L);
+
+        // Slow and fast listener.
+        Assert.assertEquals(2, start.getListenerTimings().size());
+
+        final ListenerTiming slowest = start.getSlowestListeners(1).get(0);
+        Assert.assertEquals("slow", slowest.getListenerName());
+        Assert.assertTrue(slowest.getWallNanos() >= 50000000L);
+
+        Assert.assertNull(timings.getStageTiming(LifecycleStage.STOP_STAGE));
+        Assert.assertTrue(timings.getReport(5).contains("slow"));
+    }
+
+    @Test
+    public void testFailedListener()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final LifecycleTimings timings = new LifecycleTimings();
+        lifecycle.addObserver(timings);
+
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                throw new IllegalStateException();
+            }
+        }, LifecycleDependencies.named("broken"));
+
+        try {
+            lifecycle.executeNext();
+            Assert.fail();
+        }
+        catch (IllegalStateException expected) {
+            // ok
+        }
+
+        final StageTiming configure = timings.getStageTiming(LifecycleStage.CONFIGURE_STAGE);
+        Assert.assertTrue(configure.isFailed());
+
+        final ListenerTiming broken = configure.getListenerTimings().get(configure.getListenerTimings().size() - 1);
+        Assert.assertEquals("broken", broken.getListenerName());
+        Assert.assertTrue(broken.isFailed());
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestListenerDependencies
+{
+    private final List<String> seen = new CopyOnWriteArrayList<String>();
+
+    @Test
+    public void testRegistrationOrderWithoutDependencies()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+
+        for (final String name : new String [] { "a", "b", "c" }) {
+            lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener(name));
+            lifecycle.addListener(LifecycleStage.STOP_STAGE, new RecordingListener(name));
+        }
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+
+        Assert.assertEquals(ImmutableList.of("a", "b", "c", "c", "b", "a"), seen);
+    }
+
+    @Test
+    public void testDependencies()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+
+        for (final LifecycleStage stage : new LifecycleStage [] { LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE }) {
+            lifecycle.addListener(stage, new RecordingListener("http"), LifecycleDependencies.named("http").after("database"));
+            lifecycle.addListener(stage, new RecordingListener("database"), LifecycleDependencies.named("database"));
+            lifecycle.addListener(stage, new RecordingListener("config"), LifecycleDependencies.named("config").before("database", "unknown"));
+        }
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(ImmutableList.of("config", "database", "http"), seen);
+
+        seen.clear();
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        Assert.assertEquals(ImmutableList.of("http", "database", "config"), seen);
+    }
+
+    @Test
+    public void testBeforeAll()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+
+        for (final LifecycleStage stage : new LifecycleStage [] { LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE }) {
+            lifecycle.addListener(stage, new RecordingListener("anonymous"));
+            lifecycle.addListener(stage, new RecordingListener("named"), LifecycleDependencies.named("named"));
+            lifecycle.addListener(stage, new RecordingListener("first"), LifecycleDependencies.named("first").beforeAll());
+        }
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(ImmutableList.of("first", "anonymous", "named"), seen);
+
+        seen.clear();
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        Assert.assertEquals(ImmutableList.of("named", "anonymous", "first"), seen);
+    }
+
+    @Test
+    public void testConcurrentDependencies()
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final DefaultLifecycle lifecycle = new DefaultLifecycle();
+            lifecycle.setExecutor(executor);
+
+            lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("c"), LifecycleDependencies.named("c").after("b"));
+            lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("b"), LifecycleDependencies.named("b").after("a"));
+            lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("a"), LifecycleDependencies.named("a"));
+
+            lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+            Assert.assertEquals(ImmutableList.of("a", "b", "c"), seen);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCycle()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+
+        lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("a"), LifecycleDependencies.named("a").after("b"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new RecordingListener("b"), LifecycleDependencies.named("b").after("a"));
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+    }
+
+    private class RecordingListener implements LifecycleListener
+    {
+        private final String name;
+
+        RecordingListener(final String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            seen.add(name);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestListenerLog
+{
+    private static final LifecycleListener LISTENER = new LifecycleListener() {
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+        }
+    };
+
+    @Test
+    public void testRegistrationOrder()
+    {
+        final ListenerLog log = new ListenerLog();
+        Assert.assertTrue(log.freeze().isEmpty());
+
+        for (int i = 0; i < 10000; i++) {
+            log.add(entry(i));
+            if (i == 100) {
+                // Freezing in between must not change the order.
+                Assert.assertEquals(101, log.freeze().size());
+            }
+        }
+
+        final List<ListenerEntry> entries = log.freeze();
+        Assert.assertEquals(10000, entries.size());
+        Assert.assertEquals(10000, log.size());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertEquals(Integer.toString(i), entries.get(i).getDisplayName());
+        }
+    }
+
+    @Test
+    public void testFreezeIsCached()
+    {
+        final ListenerLog log = new ListenerLog();
+        log.add(entry(0));
+
+        final List<ListenerEntry> first = log.freeze();
+        Assert.assertSame(first, log.freeze());
+
+        log.add(entry(1));
+        final List<ListenerEntry> second = log.freeze();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(1, first.size());
+        Assert.assertEquals(2, second.size());
+    }
+
+    @Test
+    public void testRemove()
+    {
+        final ListenerLog log = new ListenerLog();
+        final ListenerEntry [] entries = new ListenerEntry [100];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = entry(i);
+            log.add(entries[i]);
+        }
+        log.freeze();
+
+        for (int i = 0; i < entries.length; i += 2) {
+            log.remove(entries[i]);
+        }
+        // Removing twice does nothing.
+        log.remove(entries[0]);
+        Assert.assertEquals(50, log.size());
+
+        final List<ListenerEntry> remaining = log.freeze();
+        Assert.assertEquals(50, remaining.size());
+        for (int i = 0; i < remaining.size(); i++) {
+            Assert.assertSame(entries[2 * i + 1], remaining.get(i));
+        }
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception
+    {
+        final ListenerLog log = new ListenerLog();
+        final int threads = 4;
+        final int perThread = 25000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread [] workers = new Thread [threads];
+
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        log.add(entry(i));
+                    }
+                }
+            };
+            workers[t].start();
+        }
+
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        Assert.assertEquals(threads * perThread, log.freeze().size());
+    }
+
+    private static ListenerEntry entry(final int i)
+    {
+        return new ListenerEntry(LISTENER, LifecycleDependencies.named(Integer.toString(i)));
+    }
+}
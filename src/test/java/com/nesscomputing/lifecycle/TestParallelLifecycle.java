@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParallelLifecycle
+{
+    private ExecutorService executor = null;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testListenersRunConcurrently()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.setExecutor(executor);
+
+        // Each listener waits for all others to be running, which can only succeed if they run concurrently.
+        final CountDownLatch running = new CountDownLatch(3);
+        final AtomicInteger completed = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+                @Override
+                public void onStage(final LifecycleStage lifecycleStage)
+                {
+                    running.countDown();
+                    try {
+                        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    completed.incrementAndGet();
+                }
+            });
+        }
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        Assert.assertEquals(3, completed.get());
+        Assert.assertEquals(LifecycleStage.STOP_STAGE, lifecycle.getNextStage());
+    }
+
+    @Test
+    public void testFailuresAreAggregated()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        lifecycle.setExecutor(executor);
+
+        final AtomicInteger completed = new AtomicInteger();
+
+        lifecycle.addListener(LifecycleStage.START_STAGE, new FailingListener("first"));
+        lifecycle.addListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                completed.incrementAndGet();
+            }
+        });
+        lifecycle.addListener(LifecycleStage.START_STAGE, new FailingListener("second"));
+
+        try {
+            lifecycle.executeTo(LifecycleStage.START_STAGE);
+            Assert.fail();
+        }
+        catch (LifecycleStageException lse) {
+            Assert.assertEquals(LifecycleStage.START_STAGE, lse.getLifecycleStage());
+            Assert.assertEquals(2, lse.getFailures().size());
+            Assert.assertEquals(1, lse.getSuppressed().length);
+            Assert.assertTrue(lse.getCause() instanceof IllegalStateException);
+        }
+
+        Assert.assertEquals(1, completed.get());
+    }
+
+    private static class FailingListener implements LifecycleListener
+    {
+        private final String message;
+
+        FailingListener(final String message)
+        {
+            this.message = message;
+        }
+
+        @Override
+        public void onStage(final LifecycleStage lifecycleStage)
+        {
+            throw new IllegalStateException(message);
+        }
+    }
+}
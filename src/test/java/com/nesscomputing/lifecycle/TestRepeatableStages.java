@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRepeatableStages
+{
+    private static final LifecycleStage RELOAD_STAGE = new LifecycleStage("reload");
+
+    private LifecycleDriver driver = null;
+    private AbstractLifecycle lifecycle = null;
+
+    @Before
+    public void setUp()
+    {
+        driver = new LifecycleDriver(Arrays.asList(LifecycleStage.CONFIGURE_STAGE, LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE),
+                                     Collections.singletonList(RepeatableStage.of(RELOAD_STAGE).after(LifecycleStage.START_STAGE).before(LifecycleStage.STOP_STAGE)));
+        lifecycle = new AbstractLifecycle(driver, false) {
+            @Override
+            public void join() throws InterruptedException
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void testRepeatedExecution()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        lifecycle.addListener(RELOAD_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                count.incrementAndGet();
+            }
+        });
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        for (int i = 0; i < 100; i++) {
+            lifecycle.execute(RELOAD_STAGE);
+        }
+        Assert.assertEquals(100, count.get());
+        Assert.assertEquals(LifecycleStage.STOP_STAGE, driver.getNextStage());
+    }
+
+    @Test
+    public void testListenersAddedBetweenExecutions()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        final LifecycleListener listener = new LifecycleListener() {
+            @Override
+            public void onStage(final LifecycleStage lifecycleStage)
+            {
+                count.incrementAndGet();
+            }
+        };
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        lifecycle.addListener(RELOAD_STAGE, listener);
+        lifecycle.execute(RELOAD_STAGE);
+        final LifecycleRegistration registration = lifecycle.register(RELOAD_STAGE, listener);
+        lifecycle.execute(RELOAD_STAGE);
+        registration.remove();
+        lifecycle.execute(RELOAD_STAGE);
+        Assert.assertEquals(4, count.get());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testTooEarly()
+    {
+        lifecycle.executeNext();
+        lifecycle.execute(RELOAD_STAGE);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testTooLate()
+    {
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        lifecycle.execute(RELOAD_STAGE);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testExecuteToRepeatable()
+    {
+        lifecycle.executeTo(RELOAD_STAGE);
+    }
+
+    @Test
+    public void testNotInSequence()
+    {
+        Assert.assertEquals(Arrays.asList(LifecycleStage.CONFIGURE_STAGE, LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE), driver.getStages());
+        Assert.assertTrue(driver.isRepeatable(RELOAD_STAGE));
+        Assert.assertFalse(driver.isRepeatable(LifecycleStage.START_STAGE));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRepeatableStageInSequence()
+    {
+        new LifecycleDriver(Arrays.asList(LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE),
+                            Collections.singletonList(RepeatableStage.of(LifecycleStage.START_STAGE)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownWindow()
+    {
+        new LifecycleDriver(Arrays.asList(LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE),
+                            Collections.singletonList(RepeatableStage.of(RELOAD_STAGE).after(LifecycleStage.CONFIGURE_STAGE)));
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestWeakTargets
+{
+    @Test
+    public void testLiveTarget()
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final Object target = new Object();
+        final CountingListener listener = new CountingListener(WeakTarget.of(target));
+
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, listener);
+        lifecycle.executeNext();
+
+        Assert.assertEquals(1, listener.getCount());
+        Assert.assertSame(target, listener.getTarget().get());
+    }
+
+    @Test
+    public void testCleanerDoesNotPinClassLoader()
+    {
+        final Thread current = Thread.currentThread();
+        final ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(new URLClassLoader(new URL [0], previous));
+        try {
+            WeakTarget.of(new Object());
+        }
+        finally {
+            current.setContextClassLoader(previous);
+        }
+
+        Thread cleaner = null;
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("lifecycle-cleaner".equals(thread.getName())) {
+                cleaner = thread;
+            }
+        }
+        Assert.assertNotNull(cleaner);
+        Assert.assertNull(cleaner.getContextClassLoader());
+    }
+
+    @Test
+    public void testCollectedTarget() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final int listeners = lifecycle.getListenerCount(LifecycleStage.CONFIGURE_STAGE);
+        final CountDownLatch cleanedUp = new CountDownLatch(1);
+
+        final WeakTarget<Object> target = WeakTarget.of(new Object(), new Runnable() {
+            @Override
+            public void run()
+            {
+                cleanedUp.countDown();
+            }
+        });
+        final CountingListener listener = new CountingListener(target);
+        lifecycle.addListener(LifecycleStage.CONFIGURE_STAGE, listener);
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, listener);
+        Assert.assertEquals(listeners + 1, lifecycle.getListenerCount(LifecycleStage.CONFIGURE_STAGE));
+
+        target.simulateCollection();
+
+        Assert.assertTrue(cleanedUp.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(listeners, lifecycle.getListenerCount(LifecycleStage.CONFIGURE_STAGE));
+        Assert.assertEquals(listeners, lifecycle.getListenerCount(LifecycleStage.STOP_STAGE));
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        Assert.assertEquals(0, listener.getCount());
+    }
+
+    @Test
+    public void testManyCollectedTargets() throws Exception
+    {
+        final DefaultLifecycle lifecycle = new DefaultLifecycle();
+        final CountDownLatch cleanups = new CountDownLatch(10000);
+        final Runnable cleanupAction = new Runnable() {
+            @Override
+            public void run()
+            {
+                cleanups.countDown();
+            }
+        };
+
+        final List<WeakTarget<Object>> targets = new ArrayList<WeakTarget<Object>>();
+        for (int i = 0; i < 10000; i++) {
+            final WeakTarget<Object> target = WeakTarget.of(new Object(), cleanupAction);
+            targets.add(target);
+            lifecycle.addListener(LifecycleStage.START_STAGE, new CountingListener(target));
+        }
+        for (final WeakTarget<Object> target : targets) {
+            target.simulateCollection();
+        }
+
+        Assert.assertTrue(cleanups.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(0, lifecycle.getListenerCount(LifecycleStage.START_STAGE));
+    }
+
+    private static class CountingListener extends WeakTargetListener<Object>
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        CountingListener(final WeakTarget<Object> target)
+        {
+            super(target);
+        }
+
+        @Override
+        protected void onStage(final LifecycleStage lifecycleStage, final Object object)
+        {
+            count.incrementAndGet();
+        }
+
+        int getCount()
+        {
+            return count.get();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.nesscomputing.lifecycle.LifecycleListener;
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+public class TestCatchUpLifecycleListener {
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final CatchUpLifecycleListener listener = new CatchUpLifecycleListener(LifecycleStage.START_STAGE, new LifecycleListener() {
+        @Override
+        public void onStage(LifecycleStage lifecycleStage) {
+            count.incrementAndGet();
+        }
+    });
+
+    @Test
+    public void testNotStarted() {
+        assertFalse(listener.started(ImmutableList.of(LifecycleStage.CONFIGURE_STAGE)));
+        listener.onStage(LifecycleStage.START_STAGE);
+        listener.onStage(LifecycleStage.START_STAGE);
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void testFinishedStage() {
+        assertTrue(listener.started(ImmutableList.of(LifecycleStage.CONFIGURE_STAGE, LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE)));
+        listener.catchUp();
+        listener.onStage(LifecycleStage.START_STAGE);
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void testCatchUpBeforeRacingExecution() {
+        assertTrue(listener.started(ImmutableList.of(LifecycleStage.CONFIGURE_STAGE, LifecycleStage.START_STAGE)));
+        listener.catchUp();
+        listener.onStage(LifecycleStage.START_STAGE);
+        assertEquals(1, count.get());
+
+        // Later executions are not affected.
+        listener.onStage(LifecycleStage.START_STAGE);
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void testRacingExecutionBeforeCatchUp() {
+        listener.onStage(LifecycleStage.START_STAGE);
+        assertTrue(listener.started(ImmutableList.of(LifecycleStage.CONFIGURE_STAGE, LifecycleStage.START_STAGE)));
+        listener.catchUp();
+        assertEquals(1, count.get());
+
+        listener.onStage(LifecycleStage.START_STAGE);
+        assertEquals(2, count.get());
+    }
+}
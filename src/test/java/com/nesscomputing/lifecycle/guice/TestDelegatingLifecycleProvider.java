@@ -16,7 +16,10 @@
 package com.nesscomputing.lifecycle.guice;
 
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -130,6 +133,57 @@ public class TestDelegatingLifecycleProvider
         }
     }
 
+    @Test
+    public void testWeakTargets() throws Exception
+    {
+        final Map<LifecycleStage, CustomAction> actions = Maps.newHashMap();
+
+        final LifecycleProvider<Foo> lcProvider = DelegatingLifecycleProvider.of(new Provider<Foo>() {
+            @Override
+            public Foo get()
+            {
+                return new Foo("foo");
+            }
+        });
+        ((AbstractLifecycleProvider<Foo>) lcProvider).setWeakTargets(true);
+
+        for (LifecycleStage stage : stages) {
+            final CustomAction action = new CustomAction();
+            lcProvider.addAction(stage, action);
+            actions.put(stage, action);
+        }
+
+        final Injector injector = Guice.createInjector(
+            new Module() {
+                @Override
+                public void configure(final Binder binder)
+                {
+                    binder.bind(Lifecycle.class).to(DefaultLifecycle.class).in(Scopes.SINGLETON);
+                    binder.bind(Foo.class).toProvider(lcProvider);
+                }
+            });
+
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+
+        final Foo foo = injector.getInstance(Foo.class);
+        final ReferenceQueue<Foo> queue = new ReferenceQueue<Foo>();
+        final WeakReference<Foo> dropped = new WeakReference<Foo>(injector.getInstance(Foo.class), queue);
+
+        // The collector is only asked to run, so keep asking until the reference was enqueued or a generous deadline passed.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (queue.remove(100) == null && System.nanoTime() < deadline) {
+            System.gc();
+        }
+        Assert.assertNull(dropped.get());
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+
+        // Only the live object was hit.
+        for (final Map.Entry<LifecycleStage, CustomAction> entry : actions.entrySet()) {
+            Assert.assertEquals(1, entry.getValue().getCount());
+        }
+        Assert.assertEquals(FOO, foo);
+    }
 
     private static class CustomAction implements LifecycleAction<Foo>
     {
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.inject.Binder;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import com.nesscomputing.lifecycle.DefaultLifecycle;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+public class TestLazyLifecycleProvider
+{
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger stopped = new AtomicInteger();
+
+    /** Counted down when the provider starts creating an instance. */
+    private final CountDownLatch creating = new CountDownLatch(1);
+
+    /** If set, the provider returns the instance only once this is counted down. */
+    private volatile CountDownLatch release = null;
+
+    private Injector createInjector(final LazyLifecycleProvider<Foo> provider)
+    {
+        provider.addAction(LifecycleStage.START_STAGE, new LifecycleAction<Foo>() {
+            @Override
+            public void performAction(final Foo foo)
+            {
+                started.incrementAndGet();
+            }
+        });
+        provider.addAction(LifecycleStage.STOP_STAGE, new LifecycleAction<Foo>() {
+            @Override
+            public void performAction(final Foo foo)
+            {
+                stopped.incrementAndGet();
+            }
+        });
+
+        return Guice.createInjector(new Module() {
+            @Override
+            public void configure(final Binder binder)
+            {
+                binder.bind(Lifecycle.class).to(DefaultLifecycle.class).in(Scopes.SINGLETON);
+                binder.bind(Foo.class).toProvider(provider);
+            }
+        });
+    }
+
+    @Test
+    public void testNeverUsed()
+    {
+        final LazyLifecycleProvider<Foo> provider = LazyLifecycleProvider.of(new FooProvider());
+        final Injector injector = createInjector(provider);
+
+        injector.getInstance(Lifecycle.class).executeTo(LifecycleStage.STOP_STAGE);
+
+        Assert.assertFalse(provider.isCreated());
+        Assert.assertEquals(0, created.get());
+        Assert.assertEquals(0, stopped.get());
+    }
+
+    @Test
+    public void testFirstUseAfterStart() throws Exception
+    {
+        final LazyLifecycleProvider<Foo> provider = LazyLifecycleProvider.of(new FooProvider());
+        final Injector injector = createInjector(provider);
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(0, started.get());
+
+        release = new CountDownLatch(1);
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        final ExecutorService executor = Executors.newFixedThreadPool(8, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable);
+                threads.add(thread);
+                return thread;
+            }
+        });
+        try {
+            final CountDownLatch calling = new CountDownLatch(8);
+            final List<Future<Foo>> futures = new ArrayList<Future<Foo>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Foo>() {
+                    @Override
+                    public Foo call() throws Exception
+                    {
+                        calling.countDown();
+                        return injector.getInstance(Foo.class);
+                    }
+                }));
+            }
+
+            // Release the instance only when all callers have piled up, one creating it and the others waiting for it.
+            Assert.assertTrue(calling.await(30, TimeUnit.SECONDS));
+            Assert.assertTrue(creating.await(30, TimeUnit.SECONDS));
+            awaitAllWaiting(threads);
+            release.countDown();
+
+            final Foo foo = futures.get(0).get(30, TimeUnit.SECONDS);
+            for (final Future<Foo> future : futures) {
+                Assert.assertSame(foo, future.get(30, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1, created.get());
+        Assert.assertEquals(1, started.get());
+        Assert.assertEquals(0, stopped.get());
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        Assert.assertEquals(1, started.get());
+        Assert.assertEquals(1, stopped.get());
+    }
+
+    @Test
+    public void testFirstUseBeforeStart()
+    {
+        final LazyLifecycleProvider<Foo> provider = LazyLifecycleProvider.of(new FooProvider());
+        final Injector injector = createInjector(provider);
+
+        injector.getInstance(Foo.class);
+        Assert.assertEquals(0, started.get());
+
+        injector.getInstance(Lifecycle.class).executeTo(LifecycleStage.STOP_STAGE);
+        Assert.assertEquals(1, started.get());
+        Assert.assertEquals(1, stopped.get());
+    }
+
+    @Test
+    public void testRepeatableStageAfterFirstUse()
+    {
+        final AtomicInteger reloaded = new AtomicInteger();
+        final LazyLifecycleProvider<Foo> provider = LazyLifecycleProvider.of(new FooProvider());
+        provider.addAction(TestParallelProvisioning.ReloadableLifecycle.RELOAD_STAGE, new LifecycleAction<Foo>() {
+            @Override
+            public void performAction(final Foo foo)
+            {
+                reloaded.incrementAndGet();
+            }
+        });
+
+        final Injector injector = Guice.createInjector(new Module() {
+            @Override
+            public void configure(final Binder binder)
+            {
+                binder.bind(Lifecycle.class).to(TestParallelProvisioning.ReloadableLifecycle.class).in(Scopes.SINGLETON);
+                binder.bind(Foo.class).toProvider(provider);
+            }
+        });
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        injector.getInstance(Foo.class);
+        for (int i = 0; i < 3; i++) {
+            lifecycle.execute(TestParallelProvisioning.ReloadableLifecycle.RELOAD_STAGE);
+        }
+        Assert.assertEquals(3, reloaded.get());
+    }
+
+    private static void awaitAllWaiting(final List<Thread> threads)
+    {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            boolean allWaiting = true;
+            for (final Thread thread : threads) {
+                final Thread.State state = thread.getState();
+                allWaiting &= state == Thread.State.BLOCKED || state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING;
+            }
+            if (allWaiting) {
+                return;
+            }
+            Thread.yield();
+        }
+        Assert.fail("Callers did not wait for the instance being created");
+    }
+
+    public static class Foo
+    {
+    }
+
+    private class FooProvider implements Provider<Foo>
+    {
+        @Override
+        public Foo get()
+        {
+            created.incrementAndGet();
+            creating.countDown();
+            final CountDownLatch latch = release;
+            if (latch != null) {
+                try {
+                    Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new Foo();
+        }
+    }
+}
@@ -15,21 +15,33 @@
  */
 package com.nesscomputing.lifecycle.guice;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.ProvisionException;
+import com.nesscomputing.lifecycle.AbstractLifecycle;
+import com.nesscomputing.lifecycle.DefaultLifecycle;
 import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleDriver;
+import com.nesscomputing.lifecycle.LifecycleListener;
 import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.RepeatableStage;
 import com.nesscomputing.lifecycle.guice.LifecycleModule;
 import com.nesscomputing.lifecycle.guice.OnStage;
 
@@ -50,6 +62,58 @@ public class TestLifecycleAnnotations {
         }
     }
 
+    public static class OrderedLifecycleTest {
+        final List<String> started = Lists.newArrayList();
+
+        @OnStage(value = LifecycleStage.START, after = "second")
+        public void third() {
+            started.add("third");
+        }
+
+        @OnStage(value = LifecycleStage.START, name = "second")
+        public void second() {
+            started.add("second");
+        }
+
+        @OnStage(value = LifecycleStage.START, before = "second")
+        public void first() {
+            started.add("first");
+        }
+    }
+
+    public static class ReloadLifecycleTest {
+        int reloaded = 0;
+
+        @OnStage("reload")
+        public void reload() {
+            reloaded++;
+        }
+    }
+
+    /**
+     * Lifecycle with a repeatable "reload" stage between START and STOP.
+     */
+    public static class ReloadableLifecycle extends AbstractLifecycle {
+        static final LifecycleStage RELOAD_STAGE = new LifecycleStage("reload");
+
+        public ReloadableLifecycle() {
+            super(new LifecycleDriver(ImmutableList.of(LifecycleStage.CONFIGURE_STAGE, LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE),
+                                      ImmutableList.of(RepeatableStage.of(RELOAD_STAGE).after(LifecycleStage.START_STAGE).before(LifecycleStage.STOP_STAGE))), false);
+        }
+
+        @Override
+        public void join() throws InterruptedException {
+            join(LifecycleStage.STOP_STAGE, false);
+        }
+    }
+
+    public static class FailingLifecycleTest {
+        @OnStage(LifecycleStage.START)
+        private String fail() {
+            throw new UnsupportedOperationException("fail");
+        }
+    }
+
     @Inject
     Lifecycle lifecycle;
 
@@ -85,6 +149,62 @@ public class TestLifecycleAnnotations {
         assertTrue(tester.isStopped);
     }
 
+    /**
+     * Implements only the plain {@link Lifecycle} interface, as lifecycles outside of this library do.
+     */
+    public static class PlainLifecycle implements Lifecycle {
+        private final Lifecycle delegate = new DefaultLifecycle();
+
+        @Override
+        public void addListener(LifecycleStage stage, LifecycleListener listener) {
+            delegate.addListener(stage, listener);
+        }
+
+        @Override
+        public LifecycleStage getNextStage() {
+            return delegate.getNextStage();
+        }
+
+        @Override
+        public void executeNext() {
+            delegate.executeNext();
+        }
+
+        @Override
+        public void executeTo(LifecycleStage stage) {
+            delegate.executeTo(stage);
+        }
+
+        @Override
+        public void execute(LifecycleStage stage) {
+            delegate.execute(stage);
+        }
+
+        @Override
+        public void join() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void testPlainLifecycle() {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install (new LifecycleModule(PlainLifecycle.class));
+                bind (LifecycleTest.class);
+
+                requestInjection(TestLifecycleAnnotations.this);
+            }
+        });
+
+        assertTrue(lifecycle instanceof PlainLifecycle);
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        assertTrue(tester.isStarted);
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(tester.isStopped);
+    }
+
     @Test
     public void testLifecycleAnnotationsOnInstance() {
         Guice.createInjector(new AbstractModule() {
@@ -153,6 +273,47 @@ public class TestLifecycleAnnotations {
         assertTrue(tester.isStopped);
     }
 
+    @Test
+    public void testLifecycleAnnotationDependencies() {
+        final OrderedLifecycleTest ordered = new OrderedLifecycleTest();
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                binder().requireExplicitBindings();
+                binder().disableCircularProxies();
+
+                install (new LifecycleModule());
+                bind (LifecycleTest.class);
+                bind (OrderedLifecycleTest.class).toInstance(ordered);
+
+                requestInjection(TestLifecycleAnnotations.this);
+            }
+        });
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        assertEquals(ImmutableList.of("first", "second", "third"), ordered.started);
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testLifecycleAnnotationExceptionIsRethrown() {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                binder().requireExplicitBindings();
+                binder().disableCircularProxies();
+
+                install (new LifecycleModule());
+                bind (LifecycleTest.class);
+                bind (FailingLifecycleTest.class).toInstance(new FailingLifecycleTest());
+
+                requestInjection(TestLifecycleAnnotations.this);
+            }
+        });
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+    }
+
     @Test(expected=ProvisionException.class)
     public void testLifecycleAnnotationsAfterStartFails() {
         Injector injector = Guice.createInjector(new AbstractModule() {
@@ -171,4 +332,80 @@ public class TestLifecycleAnnotations {
 
         injector.getInstance(LifecycleTest.class); // Boom!
     }
+
+    @Test
+    public void testLateBinding() {
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                binder().requireExplicitBindings();
+                binder().disableCircularProxies();
+
+                install (new LifecycleModule().enableLateBinding(null));
+                bind (LifecycleTest.class);
+
+                requestInjection(TestLifecycleAnnotations.this);
+            }
+        });
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        LifecycleTest late = injector.getInstance(LifecycleTest.class);
+        assertTrue(late.isStarted);
+        assertFalse(late.isStopped);
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(late.isStopped);
+    }
+
+    @Test
+    public void testLateBindingRepeatableStage() {
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                binder().requireExplicitBindings();
+                binder().disableCircularProxies();
+
+                install (new LifecycleModule(ReloadableLifecycle.class).enableLateBinding(null));
+                bind (LifecycleTest.class);
+                bind (ReloadLifecycleTest.class);
+
+                requestInjection(TestLifecycleAnnotations.this);
+            }
+        });
+
+        // One created before the lifecycle starts, one after it started.
+        ReloadLifecycleTest early = injector.getInstance(ReloadLifecycleTest.class);
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        ReloadLifecycleTest late = injector.getInstance(ReloadLifecycleTest.class);
+
+        for (int i = 0; i < 3; i++) {
+            lifecycle.execute(ReloadableLifecycle.RELOAD_STAGE);
+        }
+        assertEquals(3, early.reloaded);
+        assertEquals(3, late.reloaded);
+    }
+
+    @Test
+    public void testLateBindingOnExecutor() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                binder().requireExplicitBindings();
+                binder().disableCircularProxies();
+
+                install (new LifecycleModule().enableLateBinding(executor));
+                bind (LifecycleTest.class);
+
+                requestInjection(TestLifecycleAnnotations.this);
+            }
+        });
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        LifecycleTest late = injector.getInstance(LifecycleTest.class);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(late.isStarted);
+        assertFalse(late.isStopped);
+    }
 }
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.testing.lessio.AllowAll;
+
+@AllowAll
+public class TestOnStageIndexProcessor {
+    private File tempDir = null;
+
+    @Before
+    public void setUp() {
+        tempDir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        delete(tempDir);
+    }
+
+    private static void delete(final File file) {
+        final File [] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testGeneratedIndex() throws Exception {
+        final File sourceDir = new File(tempDir, "src/idx");
+        final File outputDir = new File(tempDir, "classes");
+        assertTrue(sourceDir.mkdirs());
+        assertTrue(outputDir.mkdirs());
+
+        final File source = new File(sourceDir, "Indexed.java");
+        Files.write("package idx;\n"
+                  + "import com.nesscomputing.lifecycle.guice.OnStage;\n"
+                  + "public class Indexed {\n"
+                  + "    public int started = 0;\n"
+                  + "    public static int stopped = 0;\n"
+                  + "    @OnStage(value = \"start\", after = \"other\") void start() { started++; }\n"
+                  + "    @OnStage(value = \"stop\", name = \"stopper\") static String stop() { stopped++; return null; }\n"
+                  + "    public static class Hidden {\n"
+                  + "        @OnStage(\"start\") private void start() { }\n"
+                  + "    }\n"
+                  + "}\n", source, Charsets.UTF_8);
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final int result = compiler.run(null, null, null,
+                                        "-classpath", System.getProperty("java.class.path"),
+                                        "-processor", OnStageIndexProcessor.class.getName(),
+                                        "-d", outputDir.getPath(),
+                                        "-s", outputDir.getPath(),
+                                        source.getPath());
+        assertEquals(0, result);
+
+        final String index = Files.toString(new File(outputDir, OnStageIndex.INDEX_RESOURCE), Charsets.UTF_8);
+        assertEquals("idx.Indexed\n", index);
+
+        final URLClassLoader classLoader = new URLClassLoader(new URL [] { outputDir.toURI().toURL() }, getClass().getClassLoader());
+        final Class<?> indexedClass = classLoader.loadClass("idx.Indexed");
+        final Object indexed = indexedClass.newInstance();
+
+        final long indexedCount = OnStageMethodCache.getIndexedCount();
+        final List<OnStageMethod> methods = OnStageMethodCache.forClass(indexedClass);
+        assertEquals(indexedCount + 1, OnStageMethodCache.getIndexedCount());
+
+        assertEquals(2, methods.size());
+        assertTrue(methods.get(0).isIndexed());
+        assertEquals(LifecycleStage.START_STAGE, methods.get(0).getStage());
+        assertEquals("idx.Indexed.start", methods.get(0).getDependencies().getName());
+        assertTrue(methods.get(0).getDependencies().getAfter().contains("other"));
+        assertEquals("stopper", methods.get(1).getDependencies().getName());
+
+        methods.get(0).bind(indexed).onStage(LifecycleStage.START_STAGE);
+        methods.get(1).bind(indexed).onStage(LifecycleStage.STOP_STAGE);
+        assertEquals(1, indexedClass.getField("started").getInt(indexed));
+        assertEquals(1, indexedClass.getField("stopped").getInt(null));
+
+        // Private methods can not be indexed, so the class is scanned.
+        final List<OnStageMethod> hidden = OnStageMethodCache.forClass(classLoader.loadClass("idx.Indexed$Hidden"));
+        assertEquals(1, hidden.size());
+        assertFalse(hidden.get(0).isIndexed());
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Scopes;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+public class TestOnStageMethodCache {
+
+    public static class Base {
+        int started = 0;
+
+        @OnStage(LifecycleStage.START)
+        void start() {
+            started++;
+        }
+    }
+
+    public static class Child extends Base {
+        int stopped = 0;
+
+        @OnStage(LifecycleStage.STOP)
+        void stop() {
+            stopped++;
+        }
+    }
+
+    @Test
+    public void testClassAndSuperclassMethods() {
+        final List<OnStageMethod> methods = OnStageMethodCache.forClass(Child.class);
+        assertEquals(2, methods.size());
+        assertTrue(methods.get(0).getMethodName().endsWith("Child.stop()"));
+        assertTrue(methods.get(1).getMethodName().endsWith("Base.start()"));
+        assertFalse(methods.get(0).isIndexed());
+    }
+
+    @Test
+    public void testCacheSharedAcrossInjectors() {
+        runInjector();
+        final long misses = OnStageMethodCache.getMissCount();
+        final long hits = OnStageMethodCache.getHitCount();
+
+        final Child child = runInjector();
+
+        assertEquals(1, child.started);
+        assertEquals(1, child.stopped);
+        assertEquals(misses, OnStageMethodCache.getMissCount());
+        assertTrue(OnStageMethodCache.getHitCount() > hits);
+    }
+
+    private Child runInjector() {
+        final Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install (new LifecycleModule());
+                bind (Child.class).in(Scopes.SINGLETON);
+            }
+        });
+
+        final Child child = injector.getInstance(Child.class);
+        injector.getInstance(Lifecycle.class).executeTo(LifecycleStage.STOP_STAGE);
+        return child;
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.Stage;
+import com.nesscomputing.lifecycle.AbstractLifecycle;
+import com.nesscomputing.lifecycle.DefaultLifecycle;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleDriver;
+import com.nesscomputing.lifecycle.LifecycleListener;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.RepeatableStage;
+
+public class TestParallelProvisioning
+{
+    private static final CyclicBarrier BARRIER = new CyclicBarrier(2);
+    private static volatile boolean rendezvous = false;
+    private static final CountDownLatch BOTH_CREATING = new CountDownLatch(2);
+    private static final AtomicInteger CREATED = new AtomicInteger();
+    private static final AtomicInteger CONFIGURED = new AtomicInteger();
+    private static final AtomicInteger STARTED = new AtomicInteger();
+
+    @Before
+    public void setUp()
+    {
+        BARRIER.reset();
+        rendezvous = false;
+        CREATED.set(0);
+        CONFIGURED.set(0);
+        STARTED.set(0);
+    }
+
+    private Injector createInjector(final boolean parallel)
+    {
+        final LifecycleModule lifecycleModule = new LifecycleModule();
+        if (parallel) {
+            lifecycleModule.enableParallelProvisioning(4);
+            rendezvous = true;
+        }
+
+        return Guice.createInjector(Stage.PRODUCTION, new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (lifecycleModule);
+                ParallelSingletons.bind(binder(), Left.class);
+                ParallelSingletons.bind(binder(), Right.class);
+                ParallelSingletons.bind(binder(), Both.class);
+            }
+        });
+    }
+
+    @Test
+    public void testParallel()
+    {
+        final Injector injector = createInjector(true);
+        Assert.assertEquals(0, CREATED.get());
+
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+        lifecycle.executeTo(LifecycleStage.CONFIGURE_STAGE);
+
+        // Left and Right can only be created together, Both needs both of them.
+        Assert.assertEquals(3, CREATED.get());
+        Assert.assertEquals(3, CONFIGURED.get());
+        Assert.assertEquals(0, STARTED.get());
+
+        final Both both = injector.getInstance(Both.class);
+        Assert.assertSame(injector.getInstance(Left.class), both.left);
+        Assert.assertSame(injector.getInstance(Right.class), both.right);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(3, CREATED.get());
+        Assert.assertEquals(3, STARTED.get());
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        final Injector injector = createInjector(false);
+        Assert.assertEquals(0, CREATED.get());
+
+        final Right right = injector.getInstance(Right.class);
+        Assert.assertSame(right, injector.getInstance(Right.class));
+        Assert.assertEquals(1, CREATED.get());
+
+        injector.getInstance(Lifecycle.class).executeTo(LifecycleStage.START_STAGE);
+        Assert.assertEquals(1, CONFIGURED.get());
+        Assert.assertEquals(1, STARTED.get());
+    }
+
+    @Test
+    public void testProvisioningBeforeOtherListeners() throws Exception
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION, new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (new LifecycleModule(EarlyListenerLifecycle.class).enableParallelProvisioning(2));
+                ParallelSingletons.bind(binder(), Right.class);
+                ParallelSingletons.bind(binder(), Both.class);
+            }
+        });
+
+        final EarlyListenerLifecycle lifecycle = (EarlyListenerLifecycle) injector.getInstance(Lifecycle.class);
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            lifecycle.setExecutor(executor);
+            lifecycle.executeTo(LifecycleStage.CONFIGURE_STAGE);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        // The listener was registered before provisioning, but still saw all singletons created.
+        Assert.assertEquals(3, lifecycle.createdBeforeListener);
+    }
+
+    @Test
+    public void testRepeatableStage()
+    {
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION, new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (new LifecycleModule(ReloadableLifecycle.class).enableParallelProvisioning(2));
+                ParallelSingletons.bind(binder(), Reloaded.class);
+            }
+        });
+
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+        for (int i = 0; i < 3; i++) {
+            lifecycle.execute(ReloadableLifecycle.RELOAD_STAGE);
+        }
+        Assert.assertEquals(3, injector.getInstance(Reloaded.class).reloads.get());
+    }
+
+    @Test
+    public void testCircularDependencyAcrossThreads() throws Exception
+    {
+        final LifecycleModule lifecycleModule = new LifecycleModule();
+        lifecycleModule.enableParallelProvisioning(2);
+
+        final Injector injector = Guice.createInjector(Stage.PRODUCTION, new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (lifecycleModule);
+                ParallelSingletons.bind(binder(), Chicken.class);
+                ParallelSingletons.bind(binder(), Egg.class);
+            }
+        });
+
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Throwable> future = executor.submit(new Callable<Throwable>() {
+                @Override
+                public Throwable call()
+                {
+                    try {
+                        lifecycle.executeTo(LifecycleStage.CONFIGURE_STAGE);
+                        return null;
+                    }
+                    catch (RuntimeException e) {
+                        return e;
+                    }
+                }
+            });
+
+            // Chicken and Egg each hold their own lock and wait for the other one, this must fail instead of hanging.
+            Throwable t = future.get(30, TimeUnit.SECONDS);
+            Assert.assertNotNull(t);
+            while (t != null && (t.getMessage() == null || !t.getMessage().contains("Circular dependency"))) {
+                t = t.getCause();
+            }
+            Assert.assertNotNull(t);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private abstract static class Component
+    {
+        Component()
+        {
+            CREATED.incrementAndGet();
+        }
+
+        @OnStage(LifecycleStage.CONFIGURE)
+        public void configure()
+        {
+            CONFIGURED.incrementAndGet();
+        }
+
+        @OnStage(LifecycleStage.START)
+        public void start()
+        {
+            STARTED.incrementAndGet();
+        }
+    }
+
+    static class Left extends Component
+    {
+        @Inject
+        Left() throws Exception
+        {
+            if (rendezvous) {
+                BARRIER.await(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    static class Right extends Component
+    {
+        @Inject
+        Right() throws Exception
+        {
+            if (rendezvous) {
+                BARRIER.await(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    static class Reloaded
+    {
+        private final AtomicInteger reloads = new AtomicInteger();
+
+        @OnStage("reload")
+        public void reload()
+        {
+            reloads.incrementAndGet();
+        }
+    }
+
+    /**
+     * Lifecycle with a CONFIGURE listener that is registered before Guice sees the lifecycle, like listeners added by other code.
+     */
+    public static class EarlyListenerLifecycle extends DefaultLifecycle
+    {
+        private volatile int createdBeforeListener = -1;
+
+        public EarlyListenerLifecycle()
+        {
+            addListener(LifecycleStage.CONFIGURE_STAGE, new LifecycleListener() {
+                @Override
+                public void onStage(final LifecycleStage lifecycleStage)
+                {
+                    createdBeforeListener = CREATED.get();
+                }
+            });
+        }
+    }
+
+    /**
+     * Lifecycle with a repeatable "reload" stage between START and STOP.
+     */
+    public static class ReloadableLifecycle extends AbstractLifecycle
+    {
+        static final LifecycleStage RELOAD_STAGE = new LifecycleStage("reload");
+
+        public ReloadableLifecycle()
+        {
+            super(new LifecycleDriver(ImmutableList.of(LifecycleStage.CONFIGURE_STAGE, LifecycleStage.START_STAGE, LifecycleStage.STOP_STAGE),
+                                      ImmutableList.of(RepeatableStage.of(RELOAD_STAGE).after(LifecycleStage.START_STAGE).before(LifecycleStage.STOP_STAGE))), false);
+        }
+
+        @Override
+        public void join() throws InterruptedException
+        {
+            join(LifecycleStage.STOP_STAGE, false);
+        }
+    }
+
+    static class Chicken
+    {
+        @Inject
+        Chicken(final Provider<Egg> egg) throws Exception
+        {
+            BOTH_CREATING.countDown();
+            BOTH_CREATING.await(10, TimeUnit.SECONDS);
+            egg.get();
+        }
+
+        @OnStage(LifecycleStage.CONFIGURE)
+        public void configure()
+        {
+        }
+    }
+
+    static class Egg
+    {
+        @Inject
+        Egg(final Provider<Chicken> chicken) throws Exception
+        {
+            BOTH_CREATING.countDown();
+            BOTH_CREATING.await(10, TimeUnit.SECONDS);
+            chicken.get();
+        }
+
+        @OnStage(LifecycleStage.CONFIGURE)
+        public void configure()
+        {
+        }
+    }
+
+    static class Both extends Component
+    {
+        private final Left left;
+        private final Right right;
+
+        @Inject
+        Both(final Left left, final Right right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
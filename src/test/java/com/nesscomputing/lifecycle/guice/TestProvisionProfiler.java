@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.lifecycle.guice;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Stage;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.guice.ProvisionProfiler.ProvisionTiming;
+
+public class TestProvisionProfiler
+{
+    private Injector createInjector(final AbstractLifecycleModule lifecycleModule)
+    {
+        return Guice.createInjector(Stage.PRODUCTION, new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (lifecycleModule);
+                ParallelSingletons.bind(binder(), Slow.class);
+                bind (Widget.class).toProvider(new WidgetProvider());
+            }
+        });
+    }
+
+    @Test
+    public void testProfiling()
+    {
+        final Injector injector = createInjector(new LifecycleModule().enableParallelProvisioning(2).enableProvisionProfiling());
+        final Lifecycle lifecycle = injector.getInstance(Lifecycle.class);
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        final ProvisionProfiler profiler = injector.getInstance(ProvisionProfiler.class);
+        final List<ProvisionTiming> timings = profiler.getSlowestProvisions(10);
+        Assert.assertEquals(2, timings.size());
+
+        // Widget is created while Slow is, so Slow always took longer.
+        final ProvisionTiming slow = timings.get(0);
+        Assert.assertEquals(Slow.class.getName(), slow.getName());
+        Assert.assertTrue(slow.getWallNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertFalse(slow.isFailed());
+        Assert.assertEquals(Widget.class.getName(), timings.get(1).getName());
+
+        Assert.assertNotNull(profiler.getLifecycleTimings().getStageTiming(LifecycleStage.START_STAGE));
+
+        final String report = profiler.getReport(5);
+        Assert.assertTrue(report, report.startsWith("Provisioning: 2 objects"));
+        Assert.assertTrue(report, report.contains(Slow.class.getName()));
+        Assert.assertTrue(report, report.contains("Stage 'start'"));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        final Injector injector = createInjector(new LifecycleModule());
+        injector.getInstance(Lifecycle.class).executeTo(LifecycleStage.START_STAGE);
+        Assert.assertNotNull(injector.getInstance(Slow.class));
+
+        Assert.assertNull(injector.getExistingBinding(Key.get(ProvisionProfiler.class)));
+    }
+
+    static class Slow
+    {
+        /**
+         * Takes at least 50ms according to {@link System#nanoTime()}, which the profiler uses as well.
+         */
+        @Inject
+        Slow(final Widget widget)
+        {
+            final long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+            for (long remaining = endNanos - System.nanoTime(); remaining > 0; remaining = endNanos - System.nanoTime()) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    static class Widget
+    {
+    }
+
+    static class WidgetProvider extends AbstractLifecycleProvider<Widget>
+    {
+        @Override
+        protected Widget internalGet()
+        {
+            return new Widget();
+        }
+    }
+}